@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.app;
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JVM stand-in of the android Application, only the activity lifecycle callbacks.
+ */
+public class Application {
+
+    public interface ActivityLifecycleCallbacks {
+        void onActivityCreated(Activity activity, Bundle savedInstanceState);
+
+        void onActivityStarted(Activity activity);
+
+        void onActivityResumed(Activity activity);
+
+        void onActivityPaused(Activity activity);
+
+        void onActivityStopped(Activity activity);
+
+        void onActivitySaveInstanceState(Activity activity, Bundle outState);
+
+        void onActivityDestroyed(Activity activity);
+    }
+
+    private final List<ActivityLifecycleCallbacks> callbacks = new ArrayList<>();
+
+    public synchronized void registerActivityLifecycleCallbacks(
+            ActivityLifecycleCallbacks callback) {
+        callbacks.add(callback);
+    }
+
+    public synchronized void unregisterActivityLifecycleCallbacks(
+            ActivityLifecycleCallbacks callback) {
+        callbacks.remove(callback);
+    }
+
+    /**
+     * Not in android, the count of the registered callbacks.
+     */
+    public synchronized int callbackCount() {
+        return callbacks.size();
+    }
+
+    /**
+     * Not in android, dispatch the destroy of the {@code activity} as the framework does.
+     */
+    public void dispatchActivityDestroyed(Activity activity) {
+        final ActivityLifecycleCallbacks[] snapshot;
+        synchronized (this) {
+            snapshot = callbacks.toArray(new ActivityLifecycleCallbacks[callbacks.size()]);
+        }
+        for (ActivityLifecycleCallbacks callback : snapshot) {
+            callback.onActivityDestroyed(activity);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * JVM stand-in of the android Handler, only what MessageHandler uses.
+ */
+public class Handler {
+
+    public interface Callback {
+        boolean handleMessage(Message msg);
+    }
+
+    final Looper mLooper;
+    final MessageQueue mQueue;
+    final Callback mCallback;
+
+    public Handler() {
+        this((Callback) null);
+    }
+
+    public Handler(Callback callback) {
+        this(Looper.myLooper(), callback);
+    }
+
+    public Handler(Looper looper) {
+        this(looper, null);
+    }
+
+    public Handler(Looper looper, Callback callback) {
+        if (looper == null) {
+            throw new RuntimeException(
+                    "Can't create handler inside thread that has not called Looper.prepare()");
+        }
+        mLooper = looper;
+        mQueue = looper.mQueue;
+        mCallback = callback;
+    }
+
+    public void handleMessage(Message msg) {
+    }
+
+    public void dispatchMessage(Message msg) {
+        if (msg.callback != null) {
+            msg.callback.run();
+        } else {
+            if (mCallback != null && mCallback.handleMessage(msg)) {
+                return;
+            }
+            handleMessage(msg);
+        }
+    }
+
+    public final Message obtainMessage() {
+        return Message.obtain(this);
+    }
+
+    public final Message obtainMessage(int what) {
+        return Message.obtain(this, what);
+    }
+
+    public final boolean post(Runnable r) {
+        return sendMessageDelayed(getPostMessage(r), 0);
+    }
+
+    public final boolean postAtTime(Runnable r, long uptimeMillis) {
+        return sendMessageAtTime(getPostMessage(r), uptimeMillis);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return sendMessageDelayed(getPostMessage(r), delayMillis);
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        mQueue.removeMessages(this, r, null);
+    }
+
+    public final void removeCallbacks(Runnable r, Object token) {
+        mQueue.removeMessages(this, r, token);
+    }
+
+    public final boolean sendMessage(Message msg) {
+        return sendMessageDelayed(msg, 0);
+    }
+
+    public final boolean sendEmptyMessage(int what) {
+        return sendEmptyMessageDelayed(what, 0);
+    }
+
+    public final boolean sendEmptyMessageDelayed(int what, long delayMillis) {
+        final Message msg = Message.obtain();
+        msg.what = what;
+        return sendMessageDelayed(msg, delayMillis);
+    }
+
+    public final boolean sendMessageDelayed(Message msg, long delayMillis) {
+        if (delayMillis < 0) {
+            delayMillis = 0;
+        }
+        return sendMessageAtTime(msg, SystemClock.uptimeMillis() + delayMillis);
+    }
+
+    public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+        msg.target = this;
+        return mQueue.enqueueMessage(msg, uptimeMillis);
+    }
+
+    public final boolean sendMessageAtFrontOfQueue(Message msg) {
+        msg.target = this;
+        return mQueue.enqueueMessage(msg, 0);
+    }
+
+    public final void removeMessages(int what) {
+        mQueue.removeMessages(this, what, null);
+    }
+
+    public final void removeMessages(int what, Object object) {
+        mQueue.removeMessages(this, what, object);
+    }
+
+    public final void removeCallbacksAndMessages(Object token) {
+        mQueue.removeCallbacksAndMessages(this, token);
+    }
+
+    public final boolean hasMessages(int what) {
+        return mQueue.hasMessages(this, what, null);
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    private static Message getPostMessage(Runnable r) {
+        final Message msg = Message.obtain();
+        msg.callback = r;
+        return msg;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * JVM stand-in of the android Looper, the benchmark drives it with {@link #runDue()} instead of
+ * a blocking loop.
+ */
+public final class Looper {
+
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<>();
+    private static Looper sMainLooper;
+
+    final MessageQueue mQueue = new MessageQueue();
+
+    private Looper() {
+    }
+
+    public static void prepare() {
+        if (sThreadLocal.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        sThreadLocal.set(new Looper());
+    }
+
+    public static synchronized void prepareMainLooper() {
+        if (sMainLooper == null) {
+            sMainLooper = new Looper();
+        }
+        sThreadLocal.set(sMainLooper);
+    }
+
+    public static synchronized Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public MessageQueue getQueue() {
+        return mQueue;
+    }
+
+    /**
+     * Not in android, dispatch all messages whose time is up on the calling thread.
+     *
+     * @return the count of the dispatched messages.
+     */
+    public int runDue() {
+        int count = 0;
+        Message msg;
+        while ((msg = mQueue.nextDue()) != null) {
+            msg.target.dispatchMessage(msg);
+            msg.recycleUnchecked();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Not in android, the count of the messages left in the queue.
+     */
+    public int queued() {
+        return mQueue.size();
+    }
+}
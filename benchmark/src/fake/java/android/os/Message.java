@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * JVM stand-in of the android Message, pooled the same as the device, with a pool of at most 50
+ * messages.
+ */
+public final class Message {
+
+    static final int FLAG_IN_USE = 1;
+    private static final int MAX_POOL_SIZE = 50;
+
+    private static final Object sPoolSync = new Object();
+    private static Message sPool;
+    private static int sPoolSize = 0;
+
+    public int what;
+    public int arg1;
+    public int arg2;
+    public Object obj;
+    public Messenger replyTo;
+
+    int flags;
+    long when;
+    Bundle data;
+    Handler target;
+    Runnable callback;
+    Message next;
+
+    public static Message obtain() {
+        synchronized (sPoolSync) {
+            if (sPool != null) {
+                final Message m = sPool;
+                sPool = m.next;
+                m.next = null;
+                m.flags = 0;
+                sPoolSize--;
+                return m;
+            }
+        }
+        return new Message();
+    }
+
+    public static Message obtain(Message orig) {
+        final Message m = obtain();
+        m.what = orig.what;
+        m.arg1 = orig.arg1;
+        m.arg2 = orig.arg2;
+        m.obj = orig.obj;
+        m.replyTo = orig.replyTo;
+        m.data = orig.data;
+        m.target = orig.target;
+        m.callback = orig.callback;
+        return m;
+    }
+
+    public static Message obtain(Handler h) {
+        final Message m = obtain();
+        m.target = h;
+        return m;
+    }
+
+    public static Message obtain(Handler h, Runnable callback) {
+        final Message m = obtain(h);
+        m.callback = callback;
+        return m;
+    }
+
+    public static Message obtain(Handler h, int what) {
+        final Message m = obtain(h);
+        m.what = what;
+        return m;
+    }
+
+    public static Message obtain(Handler h, int what, Object obj) {
+        final Message m = obtain(h, what);
+        m.obj = obj;
+        return m;
+    }
+
+    public static Message obtain(Handler h, int what, int arg1, int arg2) {
+        final Message m = obtain(h, what);
+        m.arg1 = arg1;
+        m.arg2 = arg2;
+        return m;
+    }
+
+    public static Message obtain(Handler h, int what, int arg1, int arg2, Object obj) {
+        final Message m = obtain(h, what, arg1, arg2);
+        m.obj = obj;
+        return m;
+    }
+
+    public void recycle() {
+        if (isInUse()) {
+            throw new IllegalStateException("This message cannot be recycled because it "
+                    + "is still in use.");
+        }
+        recycleUnchecked();
+    }
+
+    void recycleUnchecked() {
+        flags = FLAG_IN_USE;
+        what = 0;
+        arg1 = 0;
+        arg2 = 0;
+        obj = null;
+        replyTo = null;
+        data = null;
+        when = 0;
+        target = null;
+        callback = null;
+
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                next = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
+    boolean isInUse() {
+        return (flags & FLAG_IN_USE) == FLAG_IN_USE;
+    }
+
+    void markInUse() {
+        flags |= FLAG_IN_USE;
+    }
+
+    public long getWhen() {
+        return when;
+    }
+
+    public void setTarget(Handler target) {
+        this.target = target;
+    }
+
+    public Bundle peekData() {
+        return data;
+    }
+
+    public void setData(Bundle data) {
+        this.data = data;
+    }
+
+    public Handler getTarget() {
+        return target;
+    }
+
+    public Runnable getCallback() {
+        return callback;
+    }
+
+    public void sendToTarget() {
+        target.sendMessage(this);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * JVM stand-in of the android MessageQueue, a singly linked list sorted by the time, guarded by
+ * its monitor.
+ */
+public final class MessageQueue {
+
+    private Message messages;
+
+    synchronized boolean enqueueMessage(Message msg, long when) {
+        if (msg.target == null) {
+            throw new IllegalArgumentException("Message must have a target.");
+        }
+        if (msg.isInUse()) {
+            throw new IllegalStateException("This message is already in use.");
+        }
+
+        msg.markInUse();
+        msg.when = when;
+        Message p = messages;
+        if (p == null || when == 0 || when < p.when) {
+            msg.next = p;
+            messages = msg;
+        } else {
+            Message prev;
+            do {
+                prev = p;
+                p = p.next;
+            } while (p != null && when >= p.when);
+            msg.next = p;
+            prev.next = msg;
+        }
+        return true;
+    }
+
+    /**
+     * @return the first message whose time is up, or null.
+     */
+    synchronized Message nextDue() {
+        final Message m = messages;
+        if (m == null || m.when > SystemClock.uptimeMillis()) {
+            return null;
+        }
+        messages = m.next;
+        m.next = null;
+        return m;
+    }
+
+    synchronized int size() {
+        int size = 0;
+        for (Message p = messages; p != null; p = p.next) {
+            size++;
+        }
+        return size;
+    }
+
+    synchronized boolean hasMessages(Handler h, int what, Object object) {
+        for (Message p = messages; p != null; p = p.next) {
+            if (p.target == h && p.what == what && (object == null || p.obj == object)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized void removeMessages(Handler h, int what, Object object) {
+        Message p = messages;
+        Message prev = null;
+        while (p != null) {
+            final Message n = p.next;
+            if (p.target == h && p.what == what && (object == null || p.obj == object)) {
+                prev = unlink(prev, p, n);
+            } else {
+                prev = p;
+            }
+            p = n;
+        }
+    }
+
+    synchronized void removeMessages(Handler h, Runnable r, Object object) {
+        if (r == null) {
+            return;
+        }
+
+        Message p = messages;
+        Message prev = null;
+        while (p != null) {
+            final Message n = p.next;
+            if (p.target == h && p.callback == r && (object == null || p.obj == object)) {
+                prev = unlink(prev, p, n);
+            } else {
+                prev = p;
+            }
+            p = n;
+        }
+    }
+
+    synchronized void removeCallbacksAndMessages(Handler h, Object object) {
+        Message p = messages;
+        Message prev = null;
+        while (p != null) {
+            final Message n = p.next;
+            if (p.target == h && (object == null || p.obj == object)) {
+                prev = unlink(prev, p, n);
+            } else {
+                prev = p;
+            }
+            p = n;
+        }
+    }
+
+    /**
+     * @return the previous message of {@code next}.
+     */
+    private Message unlink(Message prev, Message p, Message next) {
+        if (prev == null) {
+            messages = next;
+        } else {
+            prev.next = next;
+        }
+        p.recycleUnchecked();
+        return prev;
+    }
+}
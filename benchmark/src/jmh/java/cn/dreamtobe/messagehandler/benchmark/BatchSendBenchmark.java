@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler.benchmark;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import cn.dreamtobe.messagehandler.MessageHandler;
+
+/**
+ * A burst of {@link #batch} messages sent by the batch methods against sending them one by one
+ * in a loop, and then dispatched through the Looper, each operation is the whole burst.
+ */
+@State(Scope.Thread)
+public class BatchSendBenchmark {
+
+    @Param({"0", "1", "2"})
+    public int scheduleMode;
+
+    @Param({"10", "100", "1000"})
+    public int batch;
+
+    private Looper looper;
+    private MessageHandler handler;
+    private Message[] msgs;
+    private long[] uptimeMillis;
+    private int[] whats;
+    // all 0, due at once.
+    private long[] delayMillis;
+
+    @Setup
+    public void setup() {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        looper = Looper.myLooper();
+        handler = new MessageHandler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                return true;
+            }
+        });
+        handler.setScheduleMode(scheduleMode);
+
+        msgs = new Message[batch];
+        uptimeMillis = new long[batch];
+        whats = new int[batch];
+        delayMillis = new long[batch];
+        for (int i = 0; i < batch; i++) {
+            whats[i] = i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.killSelf();
+        looper.runDue();
+    }
+
+    @Benchmark
+    public int sendMessagesAtTime() {
+        obtainMessages();
+        handler.sendMessagesAtTime(msgs, uptimeMillis);
+        return looper.runDue();
+    }
+
+    @Benchmark
+    public int sendMessageAtTimeInLoop() {
+        obtainMessages();
+        for (int i = 0; i < batch; i++) {
+            handler.sendMessageAtTime(msgs[i], uptimeMillis[i]);
+        }
+        return looper.runDue();
+    }
+
+    @Benchmark
+    public int sendEmptyMessagesDelayed() {
+        handler.sendEmptyMessagesDelayed(whats, delayMillis);
+        return looper.runDue();
+    }
+
+    @Benchmark
+    public int sendEmptyMessageDelayedInLoop() {
+        for (int i = 0; i < batch; i++) {
+            handler.sendEmptyMessageDelayed(whats[i], delayMillis[i]);
+        }
+        return looper.runDue();
+    }
+
+    private void obtainMessages() {
+        final long now = SystemClock.uptimeMillis();
+        for (int i = 0; i < batch; i++) {
+            msgs[i] = Message.obtain(null, whats[i]);
+            uptimeMillis[i] = now;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler.benchmark;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cn.dreamtobe.messagehandler.MessageHandler;
+
+/**
+ * Several producers send and remove their own delayed messages on one MessageHandler at the
+ * same time, to see the contention on its locks.
+ */
+@State(Scope.Benchmark)
+public class ContentionBenchmark {
+
+    private static final long DELAY = 60 * 60 * 1000;
+
+    @Param({"0", "1", "2"})
+    public int scheduleMode;
+
+    private MessageHandler handler;
+
+    @State(Scope.Thread)
+    public static class Producer {
+        private static final AtomicInteger NEXT_WHAT = new AtomicInteger();
+
+        final int what = NEXT_WHAT.getAndIncrement();
+    }
+
+    @Setup
+    public void setup() {
+        Looper.prepareMainLooper();
+        handler = new MessageHandler(Looper.getMainLooper(), new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                return true;
+            }
+        });
+        handler.setScheduleMode(scheduleMode);
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.killSelf();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void sendAndRemoveMessages(Producer producer) {
+        handler.sendEmptyMessageDelayed(producer.what, DELAY);
+        handler.removeMessages(producer.what);
+    }
+}
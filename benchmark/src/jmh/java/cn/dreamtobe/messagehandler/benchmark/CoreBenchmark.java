@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import cn.dreamtobe.messagehandler.Envelope;
+import cn.dreamtobe.messagehandler.ManualDispatcher;
+import cn.dreamtobe.messagehandler.PausableHandler;
+
+/**
+ * Send a message and dispatch it through the pure-JVM core, without the Looper or its stand-in,
+ * the cost of the core itself.
+ */
+@State(Scope.Thread)
+public class CoreBenchmark {
+
+    private static final int WHAT = 1;
+
+    private static final Runnable TASK = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Param({"1", "2"})
+    public int scheduleMode;
+
+    private ManualDispatcher dispatcher;
+    private PausableHandler<Envelope> handler;
+
+    @Setup
+    public void setup() {
+        dispatcher = new ManualDispatcher();
+        handler = new PausableHandler<>(Envelope.TYPE, dispatcher, dispatcher,
+                new PausableHandler.Callback<Envelope>() {
+                    @Override
+                    public boolean handleMessage(Envelope msg) {
+                        return true;
+                    }
+                });
+        handler.setScheduleMode(scheduleMode);
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.killSelf();
+        dispatcher.runDue();
+    }
+
+    @Benchmark
+    public int sendEmptyMessage() {
+        handler.sendEmptyMessage(WHAT);
+        return dispatcher.runDue();
+    }
+
+    @Benchmark
+    public int post() {
+        handler.post(TASK);
+        return dispatcher.runDue();
+    }
+}
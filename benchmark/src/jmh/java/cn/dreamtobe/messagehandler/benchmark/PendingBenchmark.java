@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler.benchmark;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import cn.dreamtobe.messagehandler.MessageHandler;
+
+/**
+ * The operations whose cost depends on the count of the pending messages: removing a message
+ * and pause/resume, with {@link #pending} delayed messages which never come due in the queue.
+ */
+@State(Scope.Thread)
+public class PendingBenchmark {
+
+    private static final long PENDING_DELAY = 60 * 60 * 1000;
+    private static final int PENDING_WHAT_COUNT = 64;
+    private static final int WHAT = PENDING_WHAT_COUNT;
+
+    @Param({"0", "1", "2"})
+    public int scheduleMode;
+
+    @Param({"10", "1000", "10000"})
+    public int pending;
+
+    private Looper looper;
+    private MessageHandler handler;
+
+    @Setup
+    public void setup() {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        looper = Looper.myLooper();
+        handler = new MessageHandler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                return true;
+            }
+        });
+        handler.setScheduleMode(scheduleMode);
+
+        for (int i = 0; i < pending; i++) {
+            handler.sendEmptyMessageDelayed(i % PENDING_WHAT_COUNT, PENDING_DELAY + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.killSelf();
+        looper.runDue();
+    }
+
+    @Benchmark
+    public void sendAndRemoveMessages() {
+        handler.sendEmptyMessageDelayed(WHAT, PENDING_DELAY);
+        handler.removeMessages(WHAT);
+    }
+
+    @Benchmark
+    public void pauseAndResume() {
+        handler.pause();
+        handler.resume();
+    }
+}
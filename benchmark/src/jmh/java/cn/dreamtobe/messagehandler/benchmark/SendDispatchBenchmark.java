@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler.benchmark;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import cn.dreamtobe.messagehandler.MessageHandler;
+
+/**
+ * Send a message and dispatch it through the Looper, the hot path of every message.
+ */
+@State(Scope.Thread)
+public class SendDispatchBenchmark {
+
+    private static final int WHAT = 1;
+
+    @Param({"0", "1", "2"})
+    public int scheduleMode;
+
+    private Looper looper;
+    private MessageHandler handler;
+
+    @Setup
+    public void setup() {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        looper = Looper.myLooper();
+        handler = new MessageHandler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                return true;
+            }
+        });
+        handler.setScheduleMode(scheduleMode);
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.killSelf();
+        looper.runDue();
+    }
+
+    @Benchmark
+    public int sendEmptyMessage() {
+        handler.sendEmptyMessage(WHAT);
+        return looper.runDue();
+    }
+
+    @Benchmark
+    public int sendMessage() {
+        handler.sendMessage(handler.obtainMessage());
+        return looper.runDue();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler.benchmark;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import cn.dreamtobe.messagehandler.MessageHandler;
+
+/**
+ * Per-item timeouts, most of which are canceled before due: each operation schedules a timeout
+ * and cancels the eldest one, with {@link #pending} timeouts in flight, which are further than the
+ * round of the timer wheel.
+ */
+@State(Scope.Thread)
+public class TimeoutBenchmark {
+
+    private static final long TIMEOUT = 10 * 1000;
+
+    @Param({"0", "1", "2"})
+    public int scheduleMode;
+
+    @Param({"1000", "10000"})
+    public int pending;
+
+    private Looper looper;
+    private MessageHandler handler;
+    // the what of the next timeout, the eldest one in flight is pending less.
+    private int next;
+
+    @Setup
+    public void setup() {
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        looper = Looper.myLooper();
+        handler = new MessageHandler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                return true;
+            }
+        });
+        handler.setScheduleMode(scheduleMode);
+
+        for (next = 0; next < pending; next++) {
+            handler.sendEmptyMessageDelayed(next, TIMEOUT + next);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.killSelf();
+        looper.runDue();
+    }
+
+    @Benchmark
+    public void scheduleAndCancel() {
+        handler.sendEmptyMessageDelayed(next, TIMEOUT + next);
+        handler.removeMessages(next - pending);
+        next++;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LeakSweeperTest {
+
+    private static final String SWEEPER = "MessageHandler-sweeper";
+
+    private Looper looper;
+
+    @Before
+    public void setUp() {
+        Looper.prepareMainLooper();
+        looper = Looper.getMainLooper();
+        assertEquals(0, looper.queued());
+    }
+
+    @Test
+    public void leakSweeper_purgesTheMessagesOfTheCollectedHandler() throws InterruptedException {
+        MessageHandler.enableLeakSweeper();
+        MessageHandler.enableLeakSweeper();
+        assertEquals(1, countThreads(SWEEPER));
+
+        final WeakReference<MessageHandler> reference = sendAndDrop();
+        assertEquals(3, looper.queued());
+
+        for (int i = 0; i < 100 && (reference.get() != null || looper.queued() > 0); i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(reference.get());
+        assertEquals(0, looper.queued());
+    }
+
+    @Test
+    public void killOnDestroy_killsOnlyOnItsActivity() {
+        final Application application = new Application();
+        final Activity activity = new Activity(application);
+        final AtomicInteger handled = new AtomicInteger();
+        final MessageHandler handler = new MessageHandler(new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                handled.incrementAndGet();
+                return true;
+            }
+        });
+        handler.setStatsEnabled(true);
+        handler.killOnDestroy(activity);
+        handler.sendEmptyMessageDelayed(1, 1000);
+        handler.sendEmptyMessageDelayed(2, 1000);
+        assertEquals(1, application.callbackCount());
+
+        application.dispatchActivityDestroyed(new Activity(application));
+        assertEquals(1, application.callbackCount());
+        assertEquals(2, looper.queued());
+        handler.pause();
+        assertEquals(2, handler.getStats().getPendingCount());
+
+        application.dispatchActivityDestroyed(activity);
+        assertEquals(0, application.callbackCount());
+        assertEquals(0, looper.queued());
+        assertEquals(0, handler.getStats().getPendingCount());
+        assertTrue(handler.isDead());
+
+        handler.resume();
+        looper.runDue();
+        assertEquals(0, handled.get());
+    }
+
+    /**
+     * Sends messages by a handler which isn't referenced once this returns.
+     */
+    private static WeakReference<MessageHandler> sendAndDrop() {
+        final MessageHandler handler = new MessageHandler(new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                return true;
+            }
+        });
+        handler.sendEmptyMessageDelayed(1, 1000);
+        handler.sendEmptyMessageDelayed(2, 2000);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        return new WeakReference<>(handler);
+    }
+
+    private static int countThreads(String name) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * The source of the uptime of {@link PausableHandler}, all the times of a handler are on it.
+ */
+public interface Clock {
+
+    /**
+     * The monotonic time of the JVM, in milliseconds.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+
+    /**
+     * @return the milliseconds since an arbitrary origin, never goes backwards.
+     */
+    long uptimeMillis();
+}
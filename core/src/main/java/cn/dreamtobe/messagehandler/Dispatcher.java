@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * The backend of {@link PausableHandler}: runs its tasks at the time, on the thread the messages
+ * are delivered, such as a Looper, an executor({@link ExecutorDispatcher}) or the test
+ * ({@link ManualDispatcher}).
+ * <p/>
+ * Implementations are only invoked by the handler, with its lock held, so the task must not be
+ * run on the calling thread before returning.
+ */
+public interface Dispatcher {
+
+    /**
+     * run the task at the uptime on the {@link Clock} of the handler, or as soon as possible if
+     * the time is up.
+     */
+    void schedule(Runnable task, long uptimeMillis);
+
+    /**
+     * cancel the task scheduled by {@link #schedule(Runnable, long)} if it isn't run yet.
+     */
+    void cancel(Runnable task);
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * The message of {@link PausableHandler} on the JVM, the counterpart of
+ * {@code android.os.Message}: a {@code what}, two ints and an object, or a callback to run.
+ * <p/>
+ * Obtained from a global pool and recycled into it once delivered or removed, so don't keep it
+ * after handled.
+ */
+public final class Envelope {
+
+    private static final int MAX_POOL_SIZE = 50;
+    private static final Object POOL_LOCK = new Object();
+    private static Envelope pool;
+    private static int poolSize;
+
+    /**
+     * Handles {@link Envelope}s in {@link PausableHandler}.
+     */
+    public static final MessageType<Envelope> TYPE = new MessageType<Envelope>() {
+        @Override
+        public Envelope obtain(int what) {
+            return Envelope.obtain(what);
+        }
+
+        @Override
+        public Envelope obtain(Runnable callback) {
+            return Envelope.obtain(callback);
+        }
+
+        @Override
+        public Envelope obtain(Runnable callback, Object token) {
+            return Envelope.obtain(callback, token);
+        }
+
+        @Override
+        public int what(Envelope msg) {
+            return msg.what;
+        }
+
+        @Override
+        public Object token(Envelope msg) {
+            return msg.obj;
+        }
+
+        @Override
+        public Runnable callback(Envelope msg) {
+            return msg.callback;
+        }
+
+        @Override
+        public Envelope copy(Envelope msg) {
+            return Envelope.obtain(msg);
+        }
+
+        @Override
+        public void replace(Envelope pending, Envelope incoming) {
+            pending.arg1 = incoming.arg1;
+            pending.arg2 = incoming.arg2;
+            pending.obj = incoming.obj;
+        }
+
+        @Override
+        public void recycle(Envelope msg) {
+            msg.recycle();
+        }
+    };
+
+    public int what;
+    public int arg1;
+    public int arg2;
+    public Object obj;
+
+    private Runnable callback;
+    private Envelope nextInPool;
+
+    private Envelope() {
+    }
+
+    public static Envelope obtain() {
+        synchronized (POOL_LOCK) {
+            final Envelope envelope = pool;
+            if (envelope != null) {
+                pool = envelope.nextInPool;
+                envelope.nextInPool = null;
+                poolSize--;
+                return envelope;
+            }
+        }
+        return new Envelope();
+    }
+
+    public static Envelope obtain(final int what) {
+        final Envelope envelope = obtain();
+        envelope.what = what;
+        return envelope;
+    }
+
+    public static Envelope obtain(final int what, final Object obj) {
+        final Envelope envelope = obtain();
+        envelope.what = what;
+        envelope.obj = obj;
+        return envelope;
+    }
+
+    public static Envelope obtain(final int what, final int arg1, final int arg2,
+                                  final Object obj) {
+        final Envelope envelope = obtain();
+        envelope.what = what;
+        envelope.arg1 = arg1;
+        envelope.arg2 = arg2;
+        envelope.obj = obj;
+        return envelope;
+    }
+
+    public static Envelope obtain(final Runnable callback) {
+        final Envelope envelope = obtain();
+        envelope.callback = callback;
+        return envelope;
+    }
+
+    public static Envelope obtain(final Runnable callback, final Object obj) {
+        final Envelope envelope = obtain(callback);
+        envelope.obj = obj;
+        return envelope;
+    }
+
+    /**
+     * @return a copy of {@code orig}.
+     */
+    public static Envelope obtain(final Envelope orig) {
+        final Envelope envelope = obtain(orig.what, orig.arg1, orig.arg2, orig.obj);
+        envelope.callback = orig.callback;
+        return envelope;
+    }
+
+    public Runnable getCallback() {
+        return callback;
+    }
+
+    /**
+     * put it back to the pool, it must not be touched after this.
+     */
+    public void recycle() {
+        what = 0;
+        arg1 = 0;
+        arg2 = 0;
+        obj = null;
+        callback = null;
+        synchronized (POOL_LOCK) {
+            if (poolSize < MAX_POOL_SIZE) {
+                nextInPool = pool;
+                pool = this;
+                poolSize++;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("Envelope{what=").append(what)
+                .append(", arg1=").append(arg1)
+                .append(", arg2=").append(arg2);
+        if (obj != null) {
+            builder.append(", obj=").append(obj);
+        }
+        if (callback != null) {
+            builder.append(", callback=").append(callback);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the tasks of {@link PausableHandler} on an {@link Executor} instead of a Looper, so the
+ * messages are delivered on the threads of the executor.
+ * <p/>
+ * The tasks whose time isn't up are scheduled by the executor itself if it's a
+ * {@link ScheduledExecutorService}, otherwise by a timer thread shared by all handlers, which only
+ * hands them over to the executor. A task handed over to the executor can't be canceled, it finds
+ * nothing to do when it runs.
+ * <p/>
+ * Not thread safe, guarded by the {@link PausableHandler} it's created for, don't share it.
+ */
+public class ExecutorDispatcher implements Dispatcher {
+
+    private static ScheduledExecutorService sharedTimer;
+
+    private final Executor executor;
+    private final ScheduledExecutorService timer;
+    private final Clock clock;
+
+    // the only delayed task is the tick of the scheduler.
+    private Runnable delayedTask;
+    private Future<?> delayedFuture;
+
+    /**
+     * @param executor the executor to run the tasks on.
+     * @param clock    the clock of the handler.
+     */
+    public ExecutorDispatcher(final Executor executor, final Clock clock) {
+        this.executor = executor;
+        this.timer = executor instanceof ScheduledExecutorService
+                ? (ScheduledExecutorService) executor : null;
+        this.clock = clock;
+    }
+
+    @Override
+    public void schedule(final Runnable task, final long uptimeMillis) {
+        final long delay = uptimeMillis - clock.uptimeMillis();
+        if (delay <= 0) {
+            executor.execute(task);
+            return;
+        }
+
+        cancel(delayedTask);
+        delayedTask = task;
+        if (timer != null) {
+            delayedFuture = timer.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } else {
+            delayedFuture = getSharedTimer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    executor.execute(task);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void cancel(final Runnable task) {
+        if (task == null || task != delayedTask) {
+            return;
+        }
+
+        delayedFuture.cancel(false);
+        delayedTask = null;
+        delayedFuture = null;
+    }
+
+    private static synchronized ScheduledExecutorService getSharedTimer() {
+        if (sharedTimer == null) {
+            sharedTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "MessageHandler-timer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sharedTimer;
+    }
+}
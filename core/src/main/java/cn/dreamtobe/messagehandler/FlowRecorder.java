@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the flow of a {@link PausableHandler} into a ring buffer allocated up front, see
+ * {@link PausableHandler#setFlowRecorder(FlowRecorder)}: each message sent, delivered or expired
+ * and each call changing the pending messages, such as removes, pauses and resumes, with its
+ * time, so the jank can be looked into after it happens. Only the latest events fit the capacity
+ * are kept.
+ * <p/>
+ * The callbacks and tokens are recorded by their identity({@link System#identityHashCode}), the
+ * same one has the same identity in a flow, 0 for none.
+ * <p/>
+ * The flow can be written to a file by {@link #writeTo(OutputStream)}, and replayed on the JVM
+ * by {@link FlowReplay}.
+ * <p/>
+ * Thread safe and lock free: each event claims its slot by an atomic cursor and is written
+ * without any lock, so recording never blocks the senders. An event being recorded while the
+ * flow is read may be torn, read it once the handler is idle.
+ */
+public final class FlowRecorder {
+
+    /**
+     * A message sent, the delay is the time to its uptime, -1 for the front of the queue, and the
+     * ttl is the time to its deadline, -1 if none.
+     */
+    public static final int ACTION_SEND = 0;
+    /**
+     * A callback posted, the same as {@link #ACTION_SEND}.
+     */
+    public static final int ACTION_POST = 1;
+    /**
+     * A message delivered, the delay is how late it's delivered, -1 if not scheduled at a time.
+     */
+    public static final int ACTION_DELIVER = 2;
+    /**
+     * A message dropped as it's past its deadline.
+     */
+    public static final int ACTION_EXPIRE = 3;
+    /**
+     * The messages with the what removed by {@link PausableHandler#removeMessages(int)}, of the
+     * token or the lane only if they are recorded.
+     */
+    public static final int ACTION_REMOVE = 4;
+    /**
+     * {@link PausableHandler#pause()}, or {@link PausableHandler#pausePriority(int)} if the lane is
+     * recorded.
+     */
+    public static final int ACTION_PAUSE = 5;
+    /**
+     * {@link PausableHandler#resume()}, or {@link PausableHandler#resumePriority(int)} if the lane
+     * is recorded.
+     */
+    public static final int ACTION_RESUME = 6;
+    public static final int ACTION_CANCEL = 7;
+    public static final int ACTION_KILL = 8;
+    /**
+     * The callbacks removed by {@link PausableHandler#removeCallbacks(Runnable)}, of the token
+     * only if it's recorded.
+     */
+    public static final int ACTION_REMOVE_CALLBACKS = 9;
+    /**
+     * The messages and callbacks of the token removed by
+     * {@link PausableHandler#removeCallbacksAndMessages(Object)}.
+     */
+    public static final int ACTION_REMOVE_TOKEN = 10;
+    /**
+     * One message removed by {@link PausableHandler#removeIf(PausableHandler.Predicate)}, with
+     * its what, callback and token.
+     */
+    public static final int ACTION_REMOVE_ONE = 11;
+    /**
+     * {@link PausableHandler#pauseMessages(int)}.
+     */
+    public static final int ACTION_PAUSE_WHAT = 12;
+    /**
+     * {@link PausableHandler#resumeMessages(int)}.
+     */
+    public static final int ACTION_RESUME_WHAT = 13;
+    /**
+     * {@link PausableHandler#pauseCallbacksAndMessages(Object)}.
+     */
+    public static final int ACTION_PAUSE_TOKEN = 14;
+    /**
+     * {@link PausableHandler#resumeCallbacksAndMessages(Object)}.
+     */
+    public static final int ACTION_RESUME_TOKEN = 15;
+
+    /**
+     * The lane isn't recorded: all lanes, or {@link PausableHandler#PRIORITY_NORMAL} for a
+     * message sent.
+     */
+    public static final int NO_LANE = -1;
+
+    private static final int MAGIC = 0x4d48464c;
+    private static final int VERSION = 1;
+
+    private final byte[] actions;
+    private final int[] whats;
+    private final long[] uptimes;
+    private final long[] delays;
+    private final long[] ttls;
+    private final byte[] lanes;
+    private final int[] callbacks;
+    private final int[] tokens;
+    private final int mask;
+    // the count of events ever recorded, each event claims its slot by it.
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @param capacity the max count of the latest events kept, rounded up to a power of two.
+     */
+    public FlowRecorder(final int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be in (0, 2^30]: " + capacity);
+        }
+
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity
+                : Integer.highestOneBit(capacity) << 1;
+        this.actions = new byte[size];
+        this.whats = new int[size];
+        this.uptimes = new long[size];
+        this.delays = new long[size];
+        this.ttls = new long[size];
+        this.lanes = new byte[size];
+        this.callbacks = new int[size];
+        this.tokens = new int[size];
+        this.mask = size - 1;
+    }
+
+    void record(final int action, final int what, final long uptimeMillis, final long delay) {
+        record(action, what, uptimeMillis, delay, -1, NO_LANE, 0, 0);
+    }
+
+    void record(final int action, final int what, final long uptimeMillis, final long delay,
+                final long ttl, final int lane, final int callback, final int token) {
+        final int index = (int) (count.getAndIncrement() & mask);
+        actions[index] = (byte) action;
+        whats[index] = what;
+        uptimes[index] = uptimeMillis;
+        delays[index] = delay;
+        ttls[index] = ttl;
+        lanes[index] = (byte) lane;
+        callbacks[index] = callback;
+        tokens[index] = token;
+    }
+
+    /**
+     * @return the identity of the callback or token to record, 0 for null.
+     */
+    static int identityOf(final Object object) {
+        if (object == null) {
+            return 0;
+        }
+        final int identity = System.identityHashCode(object);
+        return identity == 0 ? 1 : identity;
+    }
+
+    /**
+     * @return the count of events kept, from the eldest one at 0.
+     */
+    public int size() {
+        return (int) Math.min(count.get(), mask + 1);
+    }
+
+    public void clear() {
+        count.set(0);
+    }
+
+    public int getAction(final int index) {
+        return actions[indexOf(index)];
+    }
+
+    public int getWhat(final int index) {
+        return whats[indexOf(index)];
+    }
+
+    public long getUptimeMillis(final int index) {
+        return uptimes[indexOf(index)];
+    }
+
+    public long getDelay(final int index) {
+        return delays[indexOf(index)];
+    }
+
+    /**
+     * @see #ACTION_SEND
+     */
+    public long getTtl(final int index) {
+        return ttls[indexOf(index)];
+    }
+
+    /**
+     * @return the lane of the message sent or the call, {@link #NO_LANE} if it isn't recorded.
+     */
+    public int getLane(final int index) {
+        return lanes[indexOf(index)];
+    }
+
+    /**
+     * @return the identity of the callback, 0 for none.
+     */
+    public int getCallback(final int index) {
+        return callbacks[indexOf(index)];
+    }
+
+    /**
+     * @return the identity of the token, 0 for none.
+     */
+    public int getToken(final int index) {
+        return tokens[indexOf(index)];
+    }
+
+    private int indexOf(final int index) {
+        return indexOf(index, count.get());
+    }
+
+    private int indexOf(final int index, final long count) {
+        final int size = (int) Math.min(count, mask + 1);
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        return (int) ((count - size + index) & mask);
+    }
+
+    /**
+     * write the events kept, from the eldest one, the stream isn't closed.
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(out);
+        // the events recorded after this are left out.
+        final long count = this.count.get();
+        final int size = (int) Math.min(count, mask + 1);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            final int index = indexOf(i, count);
+            data.writeByte(actions[index]);
+            data.writeInt(whats[index]);
+            data.writeLong(uptimes[index]);
+            data.writeLong(delays[index]);
+            data.writeLong(ttls[index]);
+            data.writeByte(lanes[index]);
+            data.writeInt(callbacks[index]);
+            data.writeInt(tokens[index]);
+        }
+        data.flush();
+    }
+
+    /**
+     * @return the flow written by {@link #writeTo(OutputStream)}, the stream isn't closed.
+     */
+    public static FlowRecorder readFrom(final InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("not a flow of MessageHandler");
+        }
+        final int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("unknown version of the flow: " + version);
+        }
+
+        final int size = data.readInt();
+        if (size < 0 || size > 1 << 30) {
+            throw new IOException("bad size of the flow: " + size);
+        }
+
+        final FlowRecorder flow = new FlowRecorder(Math.max(1, size));
+        for (int i = 0; i < size; i++) {
+            final byte action = data.readByte();
+            final int what = data.readInt();
+            final long uptimeMillis = data.readLong();
+            final long delay = data.readLong();
+            final long ttl = data.readLong();
+            flow.record(action, what, uptimeMillis, delay, ttl, data.readByte(), data.readInt(),
+                    data.readInt());
+        }
+        return flow;
+    }
+}
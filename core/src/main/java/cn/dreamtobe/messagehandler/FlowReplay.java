@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays the flow recorded by {@link FlowRecorder} on the JVM: the sends, removes, pauses,
+ * resumes, cancels and kills are driven again at their time against a handler on a
+ * {@link ManualDispatcher}, so the schedule modes and budgets can be profiled and compared
+ * offline with the same flow, by the stats or the flow recorded of the replay.
+ * <p/>
+ * The messages are replayed as {@link Envelope}s with their {@code what}, lane, callback and
+ * token, each callback or token recorded is replayed by a new one doing nothing for its identity,
+ * so the removes and pauses by them match the same messages. The deliveries and expirations
+ * recorded are the output, not replayed.
+ * <p/>
+ * Run it from the command line with the file of the flow, it prints the stats for each schedule
+ * mode, with the Looper queue as the baseline:
+ * <pre>
+ * java -cp core.jar cn.dreamtobe.messagehandler.FlowReplay flow.bin
+ * </pre>
+ */
+public final class FlowReplay {
+
+    /**
+     * Replay in the Looper queue, the same as {@code MessageHandler.SCHEDULE_LOOPER}, by a queue in
+     * memory which takes turns with the tasks of the {@link ManualDispatcher}.
+     */
+    public static final int REPLAY_HOST_QUEUE = PausableHandler.SCHEDULE_HOST_QUEUE;
+
+    private FlowReplay() {
+    }
+
+    /**
+     * Replay the flow against a new handler with the schedule mode, with the stats enabled.
+     *
+     * @param scheduleMode {@link #REPLAY_HOST_QUEUE},
+     *                     {@link PausableHandler#SCHEDULE_HANDLER_QUEUE} or
+     *                     {@link PausableHandler#SCHEDULE_TIMER_WHEEL}.
+     * @param recorder     records the flow of the replay, or null.
+     * @return the stats of the replay.
+     */
+    public static MessageHandlerStats replay(final FlowRecorder flow, final int scheduleMode,
+                                             final FlowRecorder recorder) {
+        final ManualDispatcher dispatcher = new ManualDispatcher(
+                flow.size() == 0 ? 0 : flow.getUptimeMillis(0));
+        final PausableHandler<Envelope> handler;
+        if (scheduleMode == REPLAY_HOST_QUEUE) {
+            final ManualHostQueue host = new ManualHostQueue(dispatcher);
+            handler = new PausableHandler<>(Envelope.TYPE, dispatcher, host, dispatcher);
+            host.attach(handler);
+        } else {
+            handler = new PausableHandler<>(Envelope.TYPE, dispatcher, dispatcher, null);
+            handler.setScheduleMode(scheduleMode);
+        }
+        handler.setStatsEnabled(true);
+        handler.setFlowRecorder(recorder);
+        replay(flow, handler, dispatcher);
+        return handler.getStats();
+    }
+
+    /**
+     * Replay the flow against the handler, which is set up by the caller, such as its turn budget
+     * or rate limit, and both its clock and dispatcher are the {@code dispatcher}. The time of
+     * the dispatcher is moved to each event, and to the last message due at the end. The lanes
+     * recorded only work in {@link PausableHandler#SCHEDULE_HANDLER_QUEUE} and
+     * {@link PausableHandler#SCHEDULE_TIMER_WHEEL}, otherwise the messages are sent without their
+     * lane, removed by the what alone, and the pauses of a lane are skipped.
+     */
+    public static void replay(final FlowRecorder flow, final PausableHandler<Envelope> handler,
+                              final ManualDispatcher dispatcher) {
+        final Identities identities = new Identities();
+        final boolean lanes = handler.hasLanes();
+        final int size = flow.size();
+        for (int i = 0; i < size; i++) {
+            dispatcher.advance(flow.getUptimeMillis(i) - dispatcher.uptimeMillis());
+
+            final int what = flow.getWhat(i);
+            final int lane = flow.getLane(i);
+            final Object token = identities.token(flow.getToken(i));
+            switch (flow.getAction(i)) {
+                case FlowRecorder.ACTION_SEND:
+                    send(handler, Envelope.obtain(what, token), flow.getDelay(i), flow.getTtl(i),
+                            lanes ? lane : FlowRecorder.NO_LANE);
+                    break;
+                case FlowRecorder.ACTION_POST:
+                    final Envelope post = Envelope.obtain(
+                            identities.callback(flow.getCallback(i)), token);
+                    post.what = what;
+                    send(handler, post, flow.getDelay(i), flow.getTtl(i),
+                            lanes ? lane : FlowRecorder.NO_LANE);
+                    break;
+                case FlowRecorder.ACTION_REMOVE:
+                    if (lane != FlowRecorder.NO_LANE && lanes) {
+                        handler.removeMessages(what, lane);
+                    } else if (token != null) {
+                        handler.removeMessages(what, token);
+                    } else {
+                        handler.removeMessages(what);
+                    }
+                    break;
+                case FlowRecorder.ACTION_REMOVE_CALLBACKS:
+                    handler.removeCallbacks(identities.callback(flow.getCallback(i)), token);
+                    break;
+                case FlowRecorder.ACTION_REMOVE_TOKEN:
+                    handler.removeCallbacksAndMessages(token);
+                    break;
+                case FlowRecorder.ACTION_REMOVE_ONE:
+                    handler.removeIf(new RemoveOne(what,
+                            identities.callback(flow.getCallback(i)), token));
+                    break;
+                case FlowRecorder.ACTION_PAUSE:
+                    if (lane == FlowRecorder.NO_LANE) {
+                        handler.pause();
+                    } else if (lanes) {
+                        handler.pausePriority(lane);
+                    }
+                    break;
+                case FlowRecorder.ACTION_RESUME:
+                    if (lane == FlowRecorder.NO_LANE) {
+                        handler.resume();
+                    } else if (lanes) {
+                        handler.resumePriority(lane);
+                    }
+                    break;
+                case FlowRecorder.ACTION_PAUSE_WHAT:
+                    handler.pauseMessages(what);
+                    break;
+                case FlowRecorder.ACTION_RESUME_WHAT:
+                    handler.resumeMessages(what);
+                    break;
+                case FlowRecorder.ACTION_PAUSE_TOKEN:
+                    handler.pauseCallbacksAndMessages(token);
+                    break;
+                case FlowRecorder.ACTION_RESUME_TOKEN:
+                    handler.resumeCallbacksAndMessages(token);
+                    break;
+                case FlowRecorder.ACTION_CANCEL:
+                    handler.cancelAllMessage();
+                    break;
+                case FlowRecorder.ACTION_KILL:
+                    handler.killSelf();
+                    break;
+                default:
+                    // the output of the flow.
+                    break;
+            }
+        }
+
+        // deliver the rest, unless paused at the end.
+        dispatcher.runAll();
+    }
+
+    private static void send(final PausableHandler<Envelope> handler, final Envelope msg,
+                             final long delay, final long ttl, final int lane) {
+        if (delay < 0) {
+            handler.sendMessageAtFrontOfQueue(msg);
+        } else if (ttl >= 0) {
+            handler.sendMessageWithTtl(msg, delay, ttl);
+        } else if (lane != FlowRecorder.NO_LANE && lane != PausableHandler.PRIORITY_NORMAL) {
+            handler.sendMessageDelayed(msg, delay, lane);
+        } else {
+            handler.sendMessageDelayed(msg, delay);
+        }
+    }
+
+    /**
+     * The callbacks and tokens standing for the identities recorded, null for 0.
+     */
+    private static final class Identities {
+        private final IntArrayMap<Runnable> callbacks = new IntArrayMap<>();
+        private final IntArrayMap<Object> tokens = new IntArrayMap<>();
+
+        Runnable callback(final int identity) {
+            if (identity == 0) {
+                return null;
+            }
+
+            Runnable callback = callbacks.get(identity);
+            if (callback == null) {
+                callback = new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                };
+                callbacks.put(identity, callback);
+            }
+            return callback;
+        }
+
+        Object token(final int identity) {
+            if (identity == 0) {
+                return null;
+            }
+
+            Object token = tokens.get(identity);
+            if (token == null) {
+                token = new Object();
+                tokens.put(identity, token);
+            }
+            return token;
+        }
+    }
+
+    /**
+     * Removes the first message matching the one recorded by
+     * {@link PausableHandler#removeIf(PausableHandler.Predicate)}.
+     */
+    private static final class RemoveOne implements PausableHandler.Predicate<Envelope> {
+        private final int what;
+        private final Runnable callback;
+        private final Object token;
+        private boolean removed;
+
+        RemoveOne(final int what, final Runnable callback, final Object token) {
+            this.what = what;
+            this.callback = callback;
+            this.token = token;
+        }
+
+        @Override
+        public boolean test(final Envelope msg) {
+            if (removed || msg.what != what || msg.getCallback() != callback
+                    || msg.obj != token) {
+                return false;
+            }
+
+            removed = true;
+            return true;
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: FlowReplay <flow file>");
+            System.exit(1);
+        }
+
+        final FlowRecorder flow;
+        final InputStream in = new FileInputStream(args[0]);
+        try {
+            flow = FlowRecorder.readFrom(in);
+        } finally {
+            in.close();
+        }
+
+        System.out.println("events: " + flow.size());
+        System.out.println("looper queue: " + replay(flow, REPLAY_HOST_QUEUE, null));
+        System.out.println("handler queue: "
+                + replay(flow, PausableHandler.SCHEDULE_HANDLER_QUEUE, null));
+        System.out.println("timer wheel: "
+                + replay(flow, PausableHandler.SCHEDULE_TIMER_WHEEL, null));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * Binary min-heap of holders, each holder knows its index in the heap, so removing is
+ * O(log n) without searching.
+ */
+class HeapPendingQueue<M> implements PendingQueue<M> {
+
+    private MessageHolder<M>[] heap = newHeap(16);
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    private static <M> MessageHolder<M>[] newHeap(final int capacity) {
+        return (MessageHolder<M>[]) new MessageHolder<?>[capacity];
+    }
+
+    @Override
+    public void add(MessageHolder<M> holder) {
+        if (size == heap.length) {
+            // Arrays#copyOf is from API 9.
+            final MessageHolder<M>[] grown = newHeap(size << 1);
+            System.arraycopy(heap, 0, grown, 0, size);
+            heap = grown;
+        }
+
+        siftUp(size++, holder);
+    }
+
+    @Override
+    public void restore(MessageHolder<M> holder) {
+        // ordered by the due and sequence already.
+        add(holder);
+    }
+
+    @Override
+    public void remove(MessageHolder<M> holder) {
+        final int index = holder.queueIndex;
+        if (index < 0 || index >= size || heap[index] != holder) {
+            return;
+        }
+
+        removeAt(index);
+    }
+
+    @Override
+    public MessageHolder<M> pollDue(long now) {
+        if (size == 0 || heap[0].due > now) {
+            return null;
+        }
+
+        final MessageHolder<M> holder = heap[0];
+        removeAt(0);
+        return holder;
+    }
+
+    @Override
+    public long nextDueTime() {
+        return size == 0 ? Long.MAX_VALUE : heap[0].due;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            heap[i].queueIndex = -1;
+            heap[i] = null;
+        }
+        size = 0;
+    }
+
+    private void removeAt(final int index) {
+        final MessageHolder<M> removed = heap[index];
+        removed.queueIndex = -1;
+
+        final int last = --size;
+        final MessageHolder<M> moved = heap[last];
+        heap[last] = null;
+        if (index == last) {
+            return;
+        }
+
+        siftDown(index, moved);
+        if (heap[index] == moved) {
+            siftUp(index, moved);
+        }
+    }
+
+    private void siftUp(int index, final MessageHolder<M> holder) {
+        while (index > 0) {
+            final int parentIndex = (index - 1) >>> 1;
+            final MessageHolder<M> parent = heap[parentIndex];
+            if (!before(holder, parent)) {
+                break;
+            }
+            heap[index] = parent;
+            parent.queueIndex = index;
+            index = parentIndex;
+        }
+        heap[index] = holder;
+        holder.queueIndex = index;
+    }
+
+    private void siftDown(int index, final MessageHolder<M> holder) {
+        final int half = size >>> 1;
+        while (index < half) {
+            int childIndex = (index << 1) + 1;
+            MessageHolder<M> child = heap[childIndex];
+            final int rightIndex = childIndex + 1;
+            if (rightIndex < size && before(heap[rightIndex], child)) {
+                childIndex = rightIndex;
+                child = heap[childIndex];
+            }
+            if (!before(child, holder)) {
+                break;
+            }
+            heap[index] = child;
+            child.queueIndex = index;
+            index = childIndex;
+        }
+        heap[index] = holder;
+        holder.queueIndex = index;
+    }
+
+    private static <M> boolean before(final MessageHolder<M> a, final MessageHolder<M> b) {
+        return a.due < b.due || (a.due == b.due && a.sequence < b.sequence);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * The queue of the host which keeps the delayed messages itself, such as the Looper queue, used
+ * in {@link PausableHandler#SCHEDULE_HOST_QUEUE}. The host hands each message back to
+ * {@link PausableHandler#dispatchFromHost(Object, long)} when its time is up.
+ *
+ * @param <M> the type of the messages.
+ */
+interface HostQueue<M> {
+
+    /**
+     * @return whether the message is put into the queue.
+     */
+    boolean enqueue(M msg, long uptimeMillis);
+
+    /**
+     * @return whether the message is put at the front of the queue.
+     */
+    boolean enqueueAtFront(M msg);
+
+    /**
+     * Remove the messages with the what, including the callbacks sent with it, the same as
+     * {@code Handler#removeMessages(int)}.
+     */
+    void removeMessages(int what);
+
+    /**
+     * @param token the {@link MessageType#token(Object)} of the messages to remove, null for any.
+     * @see #removeMessages(int)
+     */
+    void removeMessages(int what, Object token);
+
+    void removeCallbacks(Runnable callback);
+
+    /**
+     * @param token the {@link MessageType#token(Object)} of the callbacks to remove, null for any.
+     */
+    void removeCallbacks(Runnable callback, Object token);
+
+    /**
+     * @param token the {@link MessageType#token(Object)} of the messages and callbacks to remove,
+     *              null for all of them.
+     */
+    void removeCallbacksAndMessages(Object token);
+}
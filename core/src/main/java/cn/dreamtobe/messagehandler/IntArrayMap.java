@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.util.Arrays;
+
+/**
+ * Maps ints to objects by binary search on a sorted array of keys, the same as
+ * {@code android.util.SparseArray}, without boxing the keys or allocating an entry per mapping.
+ * <p/>
+ * Not thread safe.
+ */
+class IntArrayMap<V> {
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    IntArrayMap() {
+        this(8);
+    }
+
+    IntArrayMap(final int capacity) {
+        keys = new int[Math.max(1, capacity)];
+        values = new Object[keys.length];
+    }
+
+    /**
+     * @return a copy of {@code other}.
+     */
+    IntArrayMap(final IntArrayMap<V> other) {
+        keys = new int[Math.max(1, other.size)];
+        values = new Object[keys.length];
+        System.arraycopy(other.keys, 0, keys, 0, other.size);
+        System.arraycopy(other.values, 0, values, 0, other.size);
+        size = other.size;
+    }
+
+    /**
+     * @return the value of the key, null if there isn't.
+     */
+    V get(final int key) {
+        final int index = indexOfKey(key);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    void put(final int key, final V value) {
+        int index = indexOfKey(key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+
+        index = ~index;
+        if (size == keys.length) {
+            final int[] grownKeys = new int[size * 2];
+            final Object[] grownValues = new Object[size * 2];
+            System.arraycopy(keys, 0, grownKeys, 0, size);
+            System.arraycopy(values, 0, grownValues, 0, size);
+            keys = grownKeys;
+            values = grownValues;
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    void remove(final int key) {
+        final int index = indexOfKey(key);
+        if (index < 0) {
+            return;
+        }
+
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        values[size] = null;
+    }
+
+    /**
+     * @return the index of the key, or the bitwise complement of where it would be inserted.
+     */
+    int indexOfKey(final int key) {
+        return indexOfKey(keys, size, key);
+    }
+
+    /**
+     * @return the index of the key in the first {@code size} keys sorted, or the bitwise
+     * complement of where it would be inserted.
+     */
+    static int indexOfKey(final int[] keys, final int size, final int key) {
+        // the range version of Arrays#binarySearch is from API 9.
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midKey = keys[mid];
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return ~low;
+    }
+
+    int keyAt(final int index) {
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(final int index) {
+        return (V) values[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+}
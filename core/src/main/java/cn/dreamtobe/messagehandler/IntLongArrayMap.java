@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * Maps ints to longs by binary search on a sorted array of keys, the same as
+ * {@code android.util.SparseLongArray}, without boxing or allocating an entry per mapping.
+ * <p/>
+ * Not thread safe.
+ */
+class IntLongArrayMap {
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+
+    IntLongArrayMap() {
+        this(8);
+    }
+
+    IntLongArrayMap(final int capacity) {
+        keys = new int[Math.max(1, capacity)];
+        values = new long[keys.length];
+    }
+
+    /**
+     * @return the value of the key, {@code valueIfAbsent} if there isn't.
+     */
+    long get(final int key, final long valueIfAbsent) {
+        final int index = indexOfKey(key);
+        return index < 0 ? valueIfAbsent : values[index];
+    }
+
+    void put(final int key, final long value) {
+        int index = indexOfKey(key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+
+        index = ~index;
+        if (size == keys.length) {
+            final int[] grownKeys = new int[size * 2];
+            final long[] grownValues = new long[size * 2];
+            System.arraycopy(keys, 0, grownKeys, 0, size);
+            System.arraycopy(values, 0, grownValues, 0, size);
+            keys = grownKeys;
+            values = grownValues;
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    void remove(final int key) {
+        final int index = indexOfKey(key);
+        if (index < 0) {
+            return;
+        }
+
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+    }
+
+    /**
+     * remove the mappings whose value is less than {@code bound}, in one pass.
+     */
+    void removeValuesBelow(final long bound) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (values[i] >= bound) {
+                keys[kept] = keys[i];
+                values[kept] = values[i];
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * @return the index of the key, or the bitwise complement of where it would be inserted.
+     */
+    int indexOfKey(final int key) {
+        return IntArrayMap.indexOfKey(keys, size, key);
+    }
+
+    boolean isFull() {
+        return size == keys.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * A {@link Dispatcher} and {@link Clock} driven by hand: the time only moves on
+ * {@link #advance(long)}, and the tasks run on the thread calling it, so a
+ * {@link PausableHandler} is tested step by step without sleeping or a second thread.
+ * <p/>
+ * Tasks are run in the order of their time, and of scheduling for the same time, the same as the
+ * Looper queue.
+ * <p/>
+ * Thread safe: guarded by itself, the tasks are run without holding the lock.
+ */
+public class ManualDispatcher implements Dispatcher, Clock {
+
+    // in the order of scheduling.
+    private Runnable[] tasks = new Runnable[8];
+    private long[] times = new long[8];
+    private int size;
+    private long now;
+
+    /**
+     * start the time at 0.
+     */
+    public ManualDispatcher() {
+    }
+
+    public ManualDispatcher(final long uptimeMillis) {
+        this.now = uptimeMillis;
+    }
+
+    @Override
+    public synchronized long uptimeMillis() {
+        return now;
+    }
+
+    @Override
+    public synchronized void schedule(final Runnable task, final long uptimeMillis) {
+        if (size == tasks.length) {
+            final Runnable[] grownTasks = new Runnable[size * 2];
+            final long[] grownTimes = new long[size * 2];
+            System.arraycopy(tasks, 0, grownTasks, 0, size);
+            System.arraycopy(times, 0, grownTimes, 0, size);
+            tasks = grownTasks;
+            times = grownTimes;
+        }
+        tasks[size] = task;
+        times[size] = uptimeMillis;
+        size++;
+    }
+
+    @Override
+    public synchronized void cancel(final Runnable task) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (tasks[i] == task) {
+                removeLocked(i);
+            }
+        }
+    }
+
+    /**
+     * run the tasks whose time is up, including the ones they schedule for now.
+     *
+     * @return the count of tasks run.
+     */
+    public int runDue() {
+        return advance(0);
+    }
+
+    /**
+     * move the time forward, and run each task at its time on the way.
+     *
+     * @return the count of tasks run.
+     */
+    public int advance(final long millis) {
+        final long until;
+        synchronized (this) {
+            until = now + Math.max(0, millis);
+        }
+
+        int count = 0;
+        for (; ; ) {
+            final Runnable task;
+            synchronized (this) {
+                final int index = indexOfNextLocked();
+                if (index < 0 || times[index] > until) {
+                    now = until;
+                    return count;
+                }
+
+                now = Math.max(now, times[index]);
+                task = tasks[index];
+                removeLocked(index);
+            }
+
+            task.run();
+            count++;
+        }
+    }
+
+    /**
+     * run all tasks, including the ones they schedule, each at its time, the time stops at the
+     * last one.
+     *
+     * @return the count of tasks run.
+     */
+    public int runAll() {
+        int count = 0;
+        for (; ; ) {
+            final Runnable task;
+            synchronized (this) {
+                final int index = indexOfNextLocked();
+                if (index < 0) {
+                    return count;
+                }
+
+                now = Math.max(now, times[index]);
+                task = tasks[index];
+                removeLocked(index);
+            }
+
+            task.run();
+            count++;
+        }
+    }
+
+    /**
+     * @return the count of tasks not run yet.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private int indexOfNextLocked() {
+        int next = -1;
+        for (int i = 0; i < size; i++) {
+            if (next < 0 || times[i] < times[next]) {
+                next = i;
+            }
+        }
+        return next;
+    }
+
+    private void removeLocked(final int index) {
+        System.arraycopy(tasks, index + 1, tasks, index, size - index - 1);
+        System.arraycopy(times, index + 1, times, index, size - index - 1);
+        size--;
+        tasks[size] = null;
+    }
+}
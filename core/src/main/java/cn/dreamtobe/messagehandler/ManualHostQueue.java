@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+
+/**
+ * The Looper queue in memory for {@link PausableHandler#SCHEDULE_HOST_QUEUE}, on a
+ * {@link ManualDispatcher}: the messages are kept in the order of their time, and of enqueuing
+ * for the same time, the ones removed or delivered are recycled, the same as the Looper does.
+ * <p/>
+ * The messages are delivered by a task on the dispatcher at the time of the first one, so they
+ * take turns with the other tasks of the dispatcher in the order of time, the same as the
+ * messages and the tasks on one Looper.
+ */
+final class ManualHostQueue implements HostQueue<Envelope>, Runnable {
+
+    private static final class Entry {
+        final Envelope msg;
+        final long when;
+
+        Entry(final Envelope msg, final long when) {
+            this.msg = msg;
+            this.when = when;
+        }
+    }
+
+    private final ManualDispatcher dispatcher;
+    private final LinkedList<Entry> entries = new LinkedList<>();
+    private PausableHandler<Envelope> handler;
+    // the time of the task scheduled to deliver, guarded by this.
+    private long deliverAt = Long.MAX_VALUE;
+
+    ManualHostQueue(final ManualDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    void attach(final PausableHandler<Envelope> handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public synchronized boolean enqueue(final Envelope msg, final long uptimeMillis) {
+        final ListIterator<Entry> iterator = entries.listIterator(entries.size());
+        while (iterator.hasPrevious()) {
+            if (iterator.previous().when <= uptimeMillis) {
+                iterator.next();
+                break;
+            }
+        }
+        iterator.add(new Entry(msg, uptimeMillis));
+        scheduleLocked(uptimeMillis);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean enqueueAtFront(final Envelope msg) {
+        entries.addFirst(new Entry(msg, 0));
+        scheduleLocked(0);
+        return true;
+    }
+
+    private void scheduleLocked(final long uptimeMillis) {
+        // the one scheduled later is stale, it finds nothing due.
+        if (uptimeMillis < deliverAt) {
+            deliverAt = uptimeMillis;
+            dispatcher.schedule(this, uptimeMillis);
+        }
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (deliverAt <= dispatcher.uptimeMillis()) {
+                deliverAt = Long.MAX_VALUE;
+            }
+        }
+
+        runDue();
+
+        synchronized (this) {
+            final Entry first = entries.peekFirst();
+            if (first != null) {
+                scheduleLocked(first.when);
+            }
+        }
+    }
+
+    @Override
+    public void removeMessages(final int what) {
+        removeMessages(what, null);
+    }
+
+    @Override
+    public synchronized void removeMessages(final int what, final Object token) {
+        final Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            final Envelope msg = iterator.next().msg;
+            // the callbacks with the what too, the same as the Looper queue.
+            if (msg.what == what && (token == null || msg.obj == token)) {
+                iterator.remove();
+                msg.recycle();
+            }
+        }
+    }
+
+    @Override
+    public void removeCallbacks(final Runnable callback) {
+        removeCallbacks(callback, null);
+    }
+
+    @Override
+    public synchronized void removeCallbacks(final Runnable callback, final Object token) {
+        final Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            final Envelope msg = iterator.next().msg;
+            if (msg.getCallback() == callback && (token == null || msg.obj == token)) {
+                iterator.remove();
+                msg.recycle();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeCallbacksAndMessages(final Object token) {
+        final Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            final Envelope msg = iterator.next().msg;
+            if (token == null || msg.obj == token) {
+                iterator.remove();
+                msg.recycle();
+            }
+        }
+    }
+
+    /**
+     * deliver the messages whose time is up on the calling thread, the same as the Looper.
+     *
+     * @return the count of messages taken out of the queue.
+     */
+    int runDue() {
+        int count = 0;
+        for (; ; ) {
+            final Entry entry;
+            synchronized (this) {
+                entry = entries.peekFirst();
+                if (entry == null || entry.when > dispatcher.uptimeMillis()) {
+                    return count;
+                }
+                entries.removeFirst();
+            }
+
+            if (!handler.dispatchFromHost(entry.msg, entry.when)) {
+                handler.dispatch(entry.msg);
+            }
+            entry.msg.recycle();
+            count++;
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
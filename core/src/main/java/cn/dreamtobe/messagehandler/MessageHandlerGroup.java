@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.util.LinkedHashSet;
+
+/**
+ * A scope of handlers, such as the ones of a screen, paused, resumed, canceled and killed in one
+ * call, see {@link PausableHandler#setGroup(MessageHandlerGroup)}. Groups can be nested, a group
+ * is paused or killed if its parent is, and canceling the parent cancels it too.
+ * <p/>
+ * Each operation only flips the state of the group, which the handlers check when they send or
+ * deliver messages, so it costs the same however many handlers and messages there are:
+ * <ul>
+ * <li>{@link #pause()} holds the messages whose time is up instead of delivering them, the time
+ * of the messages still goes on, unlike {@link PausableHandler#pause()}. On {@link #resume()}
+ * only the handlers which have held messages are woken, to deliver them at once.</li>
+ * <li>{@link #cancelAllMessage()} and {@link #killSelf()} are applied by each handler the next
+ * time it sends or delivers a message, at the latest when its next message is due, until then
+ * the pending messages are kept, but never delivered.</li>
+ * </ul>
+ */
+public final class MessageHandlerGroup {
+
+    private final MessageHandlerGroup parent;
+
+    private volatile boolean paused;
+    private volatile boolean dead;
+    private volatile long cancelCount;
+
+    // the handlers held by the pause of this group, woken on resume in the order they are held.
+    private final LinkedHashSet<PausableHandler<?>> waiters = new LinkedHashSet<>();
+
+    public MessageHandlerGroup() {
+        this(null);
+    }
+
+    /**
+     * @param parent the group this group belongs to, or null.
+     */
+    public MessageHandlerGroup(final MessageHandlerGroup parent) {
+        this.parent = parent;
+    }
+
+    public MessageHandlerGroup getParent() {
+        return parent;
+    }
+
+    /**
+     * hold the messages of all handlers in this group and its children whose time is up.
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * deliver the messages held by {@link #pause()}, unless a parent is still paused.
+     */
+    public void resume() {
+        final PausableHandler<?>[] woken;
+        synchronized (this) {
+            if (!paused) {
+                return;
+            }
+
+            paused = false;
+            woken = waiters.toArray(new PausableHandler<?>[waiters.size()]);
+            waiters.clear();
+        }
+
+        for (PausableHandler<?> handler : woken) {
+            handler.onRelease();
+        }
+    }
+
+    /**
+     * @return whether this group or any of its parents is paused.
+     */
+    public boolean isPaused() {
+        for (MessageHandlerGroup group = this; group != null; group = group.parent) {
+            if (group.paused) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * drop the messages pending in all handlers of this group and its children when it's called.
+     */
+    public synchronized void cancelAllMessage() {
+        cancelCount++;
+    }
+
+    /**
+     * kill all handlers in this group and its children, including the ones joining later.
+     */
+    public void killSelf() {
+        final PausableHandler<?>[] woken;
+        synchronized (this) {
+            dead = true;
+            woken = waiters.toArray(new PausableHandler<?>[waiters.size()]);
+            waiters.clear();
+        }
+
+        // the messages they hold are never delivered.
+        for (PausableHandler<?> handler : woken) {
+            handler.killSelf();
+        }
+    }
+
+    /**
+     * @return whether this group or any of its parents is killed.
+     */
+    public boolean isDead() {
+        for (MessageHandlerGroup group = this; group != null; group = group.parent) {
+            if (group.dead) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return changed each time this group or any of its parents is canceled.
+     */
+    long generation() {
+        long generation = 0;
+        for (MessageHandlerGroup group = this; group != null; group = group.parent) {
+            generation += group.cancelCount;
+        }
+        return generation;
+    }
+
+    /**
+     * wake the handler on the resume of the group paused, if it's still paused.
+     *
+     * @return whether the handler has to hold its messages.
+     */
+    boolean hold(final PausableHandler<?> handler) {
+        for (MessageHandlerGroup group = this; group != null; group = group.parent) {
+            if (group.paused && group.addWaiter(handler)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized boolean addWaiter(final PausableHandler<?> handler) {
+        if (!paused) {
+            // resumed just now.
+            return false;
+        }
+
+        waiters.add(handler);
+        return true;
+    }
+}
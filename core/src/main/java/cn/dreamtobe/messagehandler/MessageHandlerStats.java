@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * The snapshot of the stats of a {@link PausableHandler}, see
+ * {@link PausableHandler#setStatsEnabled(boolean)}.
+ * <p/>
+ * The lateness of a message is how late it's dispatched after the time it's scheduled at, not
+ * counting the time paused. Messages sent at the front of the queue aren't counted.
+ */
+public final class MessageHandlerStats {
+
+    /**
+     * The count of the buckets of {@link #getLatenessHistogram()}: the bucket 0 is for less than
+     * 1ms, the bucket {@code i} is for [2^(i-1), 2^i)ms, and the last one is for 1024ms or more.
+     */
+    public static final int LATENESS_BUCKET_COUNT = 12;
+
+    private final long sentCount;
+    private final long deliveredCount;
+    private final long droppedCount;
+    private final long expiredCount;
+    private final long heldByPauseCount;
+    private final long pauseCount;
+    private final long pausedMillis;
+    private final int pendingCount;
+    private final int maxPendingCount;
+    private final long maxLatenessMillis;
+    private final long[] latenessHistogram;
+
+    MessageHandlerStats(long sentCount, long deliveredCount, long droppedCount,
+                        long expiredCount, long heldByPauseCount, long pauseCount,
+                        long pausedMillis, int pendingCount, int maxPendingCount,
+                        long maxLatenessMillis, long[] latenessHistogram) {
+        this.sentCount = sentCount;
+        this.deliveredCount = deliveredCount;
+        this.droppedCount = droppedCount;
+        this.expiredCount = expiredCount;
+        this.heldByPauseCount = heldByPauseCount;
+        this.pauseCount = pauseCount;
+        this.pausedMillis = pausedMillis;
+        this.pendingCount = pendingCount;
+        this.maxPendingCount = maxPendingCount;
+        this.maxLatenessMillis = maxLatenessMillis;
+        this.latenessHistogram = latenessHistogram;
+    }
+
+    /**
+     * @return the count of messages accepted.
+     */
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @return the count of messages dispatched.
+     */
+    public long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * @return the count of messages dropped by {@link PausableHandler#cancelAllMessage()},
+     * {@link PausableHandler#killSelf()} and {@link PausableHandler#RESUME_KEEP_LATEST}.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the count of messages dropped as they aren't delivered before their deadline.
+     */
+    public long getExpiredCount() {
+        return expiredCount;
+    }
+
+    /**
+     * @return the count of messages held by {@link PausableHandler#pause()}, both the pending ones
+     * when paused and the ones sent while paused.
+     */
+    public long getHeldByPauseCount() {
+        return heldByPauseCount;
+    }
+
+    /**
+     * @return the count of {@link PausableHandler#pause()} took effect.
+     */
+    public long getPauseCount() {
+        return pauseCount;
+    }
+
+    /**
+     * @return the time paused in total, including the current pause.
+     */
+    public long getPausedMillis() {
+        return pausedMillis;
+    }
+
+    /**
+     * @return the count of messages pending when taking this snapshot.
+     */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * @return the max count of messages pending when a message is sent.
+     */
+    public int getMaxPendingCount() {
+        return maxPendingCount;
+    }
+
+    /**
+     * @return the max lateness of the messages dispatched, in milliseconds.
+     */
+    public long getMaxLatenessMillis() {
+        return maxLatenessMillis;
+    }
+
+    /**
+     * @return the count of messages dispatched in each bucket of the lateness, see
+     * {@link #LATENESS_BUCKET_COUNT}.
+     */
+    public long[] getLatenessHistogram() {
+        return latenessHistogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("MessageHandlerStats{sent=")
+                .append(sentCount)
+                .append(", delivered=").append(deliveredCount)
+                .append(", dropped=").append(droppedCount)
+                .append(", expired=").append(expiredCount)
+                .append(", heldByPause=").append(heldByPauseCount)
+                .append(", pauseCount=").append(pauseCount)
+                .append(", pausedMillis=").append(pausedMillis)
+                .append(", pending=").append(pendingCount)
+                .append(", maxPending=").append(maxPendingCount)
+                .append(", maxLatenessMillis=").append(maxLatenessMillis)
+                .append(", latenessHistogram=[");
+        for (int i = 0; i < latenessHistogram.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(latenessHistogram[i]);
+        }
+        return builder.append("]}").toString();
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * The record of a pending message in {@link MessageHolderList}, and the node of the
+ * {@link PendingQueue} it's waiting in.
+ *
+ * @param <M> the type of the messages.
+ */
+class MessageHolder<M> {
+    // the copy for resume, only obtained when the message has to be held.
+    private M msg;
+    private long upTimeMills;
+
+    // sent by sendMessageAtFrontOfQueue, so it goes back to the front on resume.
+    boolean atFront;
+
+    // Message may recycle by Looper#looper/MessageQueue#removexxx, so keep the keys for index.
+    M compareMsg;
+    int what;
+    Runnable callback;
+    Object token;
+
+    // the order of sending among all stripes of MessageHolderList.
+    long order;
+
+    // links for MessageHolderList.
+    final MessageHolder<M>[] chainPrev = newChain();
+    final MessageHolder<M>[] chainNext = newChain();
+    // link for the pool of MessageHolderList.
+    MessageHolder<M> nextInPool;
+
+    // for PendingQueue: the time on the virtual clock, the order for the same time and the
+    // position in the queue.
+    long due;
+    long sequence;
+    int lane;
+    int queueIndex = -1;
+    MessageHolder<M> queuePrev;
+    MessageHolder<M> queueNext;
+    // waiting for the one with the same what being delivered, instead of in the queue, linked
+    // by the queue links then.
+    boolean parked;
+    // the real uptime after which the message is dropped instead of delivered.
+    long deadline;
+    // sent with the what only, the message is obtained when it's needed, such as delivered.
+    private boolean whatOnly;
+
+    private long delay;
+    private boolean stopped;
+    // stopped while its time goes on, such as held by the group or the publisher.
+    private boolean inTime;
+
+    @SuppressWarnings("unchecked")
+    private static <M> MessageHolder<M>[] newChain() {
+        return (MessageHolder<M>[]) new MessageHolder<?>[MessageHolderList.CHAIN_COUNT];
+    }
+
+    void set(final M msg, final MessageType<M> type, final long upTimeMills) {
+        reset(upTimeMills);
+        this.compareMsg = msg;
+        this.what = type.what(msg);
+        this.callback = type.callback(msg);
+        this.token = type.token(msg);
+    }
+
+    /**
+     * for the message with the what only, which is never put into the host queue, see
+     * {@link #materialize(MessageType)}.
+     */
+    void setWhatOnly(final int what, final long upTimeMills) {
+        reset(upTimeMills);
+        this.compareMsg = null;
+        this.what = what;
+        this.callback = null;
+        this.token = null;
+        this.whatOnly = true;
+    }
+
+    private void reset(final long upTimeMills) {
+        this.upTimeMills = upTimeMills;
+        this.msg = null;
+        this.delay = 0;
+        this.stopped = false;
+        this.inTime = false;
+        this.atFront = false;
+        this.queueIndex = -1;
+        this.parked = false;
+        this.lane = PausableHandler.PRIORITY_NORMAL;
+        this.deadline = PausableHandler.NO_DEADLINE;
+        this.whatOnly = false;
+    }
+
+    /**
+     * clear all references, for recycling into the pool.
+     */
+    void clear() {
+        compareMsg = null;
+        callback = null;
+        token = null;
+        msg = null;
+        queuePrev = null;
+        queueNext = null;
+        for (int i = 0; i < MessageHolderList.CHAIN_COUNT; i++) {
+            chainPrev[i] = null;
+            chainNext[i] = null;
+        }
+    }
+
+    /**
+     * the message will not be put into the host queue, so it belongs to us and no need to copy.
+     */
+    void takeOver() {
+        msg = compareMsg;
+    }
+
+    /**
+     * obtain the message of the holder with the what only, at the last moment.
+     *
+     * @return the same as {@link #message()}.
+     */
+    M materialize(final MessageType<M> type) {
+        if (whatOnly) {
+            msg = type.obtain(what);
+            whatOnly = false;
+        }
+        return message();
+    }
+
+    /**
+     * @return the message to deliver: the one held, or the one in the host queue, null if it's
+     * with the what only.
+     */
+    M message() {
+        return msg != null ? msg : compareMsg;
+    }
+
+    /**
+     * hand the message over, the holder doesn't care about it anymore.
+     */
+    M takeMessage() {
+        final M msg = this.msg;
+        this.msg = null;
+        return msg;
+    }
+
+    /**
+     * stop the holder whose message is in the host queue, keep a copy of the message as the host
+     * is going to recycle it.
+     */
+    void stop(final MessageType<M> type, final long now) {
+        if (msg == null && compareMsg != null) {
+            // the copy will not be recycle by the host, so safe.
+            msg = type.copy(compareMsg);
+        }
+        delay = atFront ? 0 : this.upTimeMills - now;
+        stopped = true;
+        inTime = false;
+    }
+
+    /**
+     * stop the holder whose message is taken out of the host queue while its time goes on, such
+     * as held by the group or the publisher, so it's sent back at its own time, in front of the
+     * ones sent after it.
+     */
+    void stopInTime(final MessageType<M> type, final long now) {
+        stop(type, now);
+        inTime = !atFront;
+    }
+
+    /**
+     * @return the uptime to send the message again at: its own time if it's stopped in time,
+     * otherwise after the time left when it's stopped, not less than now.
+     */
+    long resume(final long now) {
+        if (inTime) {
+            return upTimeMills;
+        }
+        delay = Math.max(0, delay);
+        return now + delay;
+    }
+
+    /**
+     * put the message held back into the host queue in place, it's the one to compare from now on.
+     *
+     * @return the message to send again, null if none is held.
+     */
+    M restart(final long upTimeMills) {
+        final M msg = this.msg;
+        if (msg == null) {
+            return null;
+        }
+
+        this.compareMsg = msg;
+        this.msg = null;
+        this.upTimeMills = upTimeMills;
+        this.delay = 0;
+        this.stopped = false;
+        this.inTime = false;
+        return msg;
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * stop the holder whose message is never put into the host queue.
+     *
+     * @param delay the time left on the clock of the scheduler.
+     */
+    void hold(final long delay) {
+        this.delay = delay;
+        this.stopped = true;
+    }
+
+    /**
+     * @return the time left when it's stopped, not less than 0.
+     */
+    long release() {
+        this.stopped = false;
+        return Math.max(0, delay);
+    }
+
+    void dead(final MessageType<M> type) {
+        if (msg != null) {
+            synchronized (this) {
+                if (msg != null) {
+                    // flag must be clear, free to recycle.
+                    type.recycle(msg);
+                    // have to set nil, because the msg will be used in other places by recycle
+                    // pool.
+                    msg = null;
+                }
+
+            }
+        }
+
+    }
+}
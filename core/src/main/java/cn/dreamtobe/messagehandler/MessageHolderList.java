@@ -0,0 +1,1138 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import cn.dreamtobe.messagehandler.PausableHandler.Merger;
+import cn.dreamtobe.messagehandler.PausableHandler.Predicate;
+
+import static cn.dreamtobe.messagehandler.PausableHandler.NEED_LOG;
+import static cn.dreamtobe.messagehandler.PausableHandler.logD;
+
+/**
+ * why this? for being good for Message recycle or not recycle.
+ * <p/>
+ * Holders are linked intrusively into four chains: the order of sending(for pause/resume), the
+ * chain of the same {@code what}, the chain of the same callback and the chain of the same token
+ * ({@code msg.obj}). Each chain is reached through an index, so finding and removing a holder is
+ * O(1) and does not allocate.
+ * <p/>
+ * In every chain the head's {@code prev} points to the tail, so we can append in O(1) too.
+ * <p/>
+ * Thread safe: holders are split into stripes by {@code what}, each stripe is guarded by its own
+ * lock, so senders with different {@code what} never block each other. Callers can also hold the
+ * lock of a stripe({@link #lock(int)}) or all of them({@link #lockAll()}) to make their own steps
+ * atomic with the operations here, the locks are reentrant.
+ * <p/>
+ * Each stripe keeps a small pool of the removed holders, obtained and recycled under the lock of
+ * the stripe, so sending and dispatching don't allocate in steady state.
+ *
+ * @param <M> the type of the messages.
+ */
+class MessageHolderList<M> {
+
+    static final int CHAIN_ALL = 0;
+    static final int CHAIN_WHAT = 1;
+    static final int CHAIN_CALLBACK = 2;
+    static final int CHAIN_TOKEN = 3;
+    static final int CHAIN_COUNT = 4;
+
+    // the deadline of the message which isn't registered.
+    static final long NOT_REGISTERED = Long.MIN_VALUE;
+
+    // must be power of 2.
+    private static final int STRIPE_COUNT = 16;
+    // for each stripe.
+    private static final int MAX_POOL_SIZE = 50;
+
+    private final Stripe<M>[] stripes = newStripes();
+    // stamps the holders added with the order of sending.
+    private final AtomicLong sendCount = new AtomicLong();
+    // the next holder of each stripe to visit in order, guarded by the locks of all stripes.
+    private final MessageHolder<M>[] cursors = newCursors();
+
+    final MessageType<M> type;
+
+    /**
+     * Invoked under the lock of the stripe before a removed holder is recycled.
+     */
+    interface OnRemoveListener<M> {
+        void onRemove(MessageHolder<M> holder);
+    }
+
+    MessageHolderList(final MessageType<M> type) {
+        this.type = type;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new Stripe<>(this);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M> Stripe<M>[] newStripes() {
+        return (Stripe<M>[]) new Stripe<?>[STRIPE_COUNT];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M> MessageHolder<M>[] newCursors() {
+        return (MessageHolder<M>[]) new MessageHolder<?>[STRIPE_COUNT];
+    }
+
+    private volatile OnRemoveListener<M> onRemoveListener;
+
+    // what -> merger, copy on write, null if no what is coalesced.
+    private volatile IntArrayMap<Merger<M>> mergers;
+
+    // the whats of which only the latest message is kept on resume, copy on write, null if none.
+    private volatile IntArrayMap<Boolean> keepLatestWhats;
+
+    // the whats and tokens paused on their own, copy on write, null if none.
+    private volatile IntArrayMap<Boolean> pausedWhats;
+    private volatile IdentityHashMap<Object, Boolean> pausedTokens;
+
+    /**
+     * Visits the holders in a chain, it must not remove holders.
+     */
+    interface HolderVisitor<M> {
+        void visit(MessageHolder<M> holder);
+    }
+
+    /**
+     * Puts the message held by a stopped holder back into the host queue, under the lock of its
+     * stripe, so the holder is reused as it is.
+     */
+    interface Restarter<M> {
+        /**
+         * @return false if the holder has to be removed instead, such as it's past its deadline.
+         */
+        boolean restart(MessageHolder<M> holder);
+    }
+
+    void setOnRemoveListener(final OnRemoveListener<M> onRemoveListener) {
+        this.onRemoveListener = onRemoveListener;
+    }
+
+    /**
+     * @param merger the merger for {@code what}, or null to stop coalescing it.
+     */
+    synchronized void setMerger(final int what, final Merger<M> merger) {
+        final IntArrayMap<Merger<M>> oldMergers = this.mergers;
+        final IntArrayMap<Merger<M>> mergers = oldMergers == null
+                ? new IntArrayMap<Merger<M>>() : new IntArrayMap<>(oldMergers);
+
+        if (merger == null) {
+            mergers.remove(what);
+        } else {
+            mergers.put(what, merger);
+        }
+        this.mergers = mergers.size() == 0 ? null : mergers;
+    }
+
+    /**
+     * @param keepLatest whether only the latest message of the {@code what} is kept on resume.
+     */
+    synchronized void setKeepLatest(final int what, final boolean keepLatest) {
+        final IntArrayMap<Boolean> oldWhats = this.keepLatestWhats;
+        final IntArrayMap<Boolean> whats = oldWhats == null
+                ? new IntArrayMap<Boolean>() : new IntArrayMap<>(oldWhats);
+
+        if (keepLatest) {
+            whats.put(what, Boolean.TRUE);
+        } else {
+            whats.remove(what);
+        }
+        this.keepLatestWhats = whats.size() == 0 ? null : whats;
+    }
+
+    /**
+     * @return whether the {@code what} is paused on its own.
+     */
+    synchronized boolean setPaused(final int what, final boolean paused) {
+        final IntArrayMap<Boolean> oldWhats = this.pausedWhats;
+        if ((oldWhats != null && oldWhats.indexOfKey(what) >= 0) == paused) {
+            return false;
+        }
+
+        final IntArrayMap<Boolean> whats = oldWhats == null
+                ? new IntArrayMap<Boolean>() : new IntArrayMap<>(oldWhats);
+        if (paused) {
+            whats.put(what, Boolean.TRUE);
+        } else {
+            whats.remove(what);
+        }
+        this.pausedWhats = whats.size() == 0 ? null : whats;
+        return true;
+    }
+
+    /**
+     * @return whether the state is changed.
+     */
+    synchronized boolean setPaused(final Object token, final boolean paused) {
+        final IdentityHashMap<Object, Boolean> oldTokens = this.pausedTokens;
+        if ((oldTokens != null && oldTokens.containsKey(token)) == paused) {
+            return false;
+        }
+
+        final IdentityHashMap<Object, Boolean> tokens = oldTokens == null
+                ? new IdentityHashMap<Object, Boolean>() : new IdentityHashMap<>(oldTokens);
+        if (paused) {
+            tokens.put(token, Boolean.TRUE);
+        } else {
+            tokens.remove(token);
+        }
+        this.pausedTokens = tokens.isEmpty() ? null : tokens;
+        return true;
+    }
+
+    /**
+     * @return whether the message being sent has to be held, as its {@code what} or token is
+     * paused on its own.
+     */
+    boolean isPaused(final M msg) {
+        return isPaused(type.what(msg), type.token(msg));
+    }
+
+    /**
+     * @return whether the holder has to be kept stopped, as its {@code what} or token is paused on
+     * its own.
+     */
+    boolean isPaused(final MessageHolder<M> holder) {
+        return isPaused(holder.what, holder.token);
+    }
+
+    private boolean isPaused(final int what, final Object token) {
+        final IntArrayMap<Boolean> whats = this.pausedWhats;
+        if (whats != null && whats.indexOfKey(what) >= 0) {
+            return true;
+        }
+
+        final IdentityHashMap<Object, Boolean> tokens = this.pausedTokens;
+        return token != null && tokens != null && tokens.containsKey(token);
+    }
+
+    /**
+     * visit the holders with the what, the lock of {@code what} is held while visiting.
+     */
+    void forEach(final int what, final HolderVisitor<M> visitor) {
+        final Stripe<M> stripe = stripeOf(what);
+        stripe.lock.lock();
+        try {
+            for (MessageHolder<M> holder = stripe.whatIndex.get(what); holder != null;
+                 holder = holder.chainNext[CHAIN_WHAT]) {
+                visitor.visit(holder);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * visit the holders with the token in the order of sending across the stripes, so the ones put
+     * back to a queue keep that order for the same time. The locks of all stripes are held while
+     * visiting.
+     */
+    void forEach(final Object token, final HolderVisitor<M> visitor) {
+        lockAll();
+        try {
+            final MessageHolder<M>[] cursors = this.cursors;
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                cursors[i] = stripes[i].tokenIndex.get(token);
+            }
+
+            for (int eldest = eldestCursor(); eldest >= 0; eldest = eldestCursor()) {
+                final MessageHolder<M> holder = cursors[eldest];
+                cursors[eldest] = holder.chainNext[CHAIN_TOKEN];
+                visitor.visit(holder);
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * merge the message into the eldest pending message with the same {@code what} if it's
+     * coalesced, and recycle it. The lock of {@code msg.what} must be held.
+     *
+     * @return whether merged, otherwise the message is left untouched.
+     */
+    boolean coalesce(final M msg) {
+        final IntArrayMap<Merger<M>> mergers = this.mergers;
+        if (mergers == null || type.callback(msg) != null) {
+            return false;
+        }
+
+        final int what = type.what(msg);
+        final Merger<M> merger = mergers.get(what);
+        if (merger == null) {
+            return false;
+        }
+
+        final Stripe<M> stripe = stripeOf(what);
+        for (MessageHolder<M> holder = stripe.whatIndex.get(what); holder != null;
+             holder = holder.chainNext[CHAIN_WHAT]) {
+            final M pending = holder.callback == null ? holder.materialize(type) : null;
+            if (pending != null) {
+                if (NEED_LOG) {
+                    logD("List:Coalesce %d", what);
+                }
+                merger.merge(pending, msg);
+                type.recycle(msg);
+                final Object token = type.token(pending);
+                if (token != holder.token) {
+                    stripe.retoken(holder, token);
+                }
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private Stripe<M> stripeOf(final int what) {
+        return stripes[(what ^ (what >>> 16)) & (STRIPE_COUNT - 1)];
+    }
+
+    void lock(final int what) {
+        stripeOf(what).lock.lock();
+    }
+
+    void unlock(final int what) {
+        stripeOf(what).lock.unlock();
+    }
+
+    /**
+     * lock all stripes in order, so it never deadlocks with another {@link #lockAll()}.
+     */
+    void lockAll() {
+        for (Stripe<M> stripe : stripes) {
+            stripe.lock.lock();
+        }
+    }
+
+    void unlockAll() {
+        for (int i = STRIPE_COUNT - 1; i >= 0; i--) {
+            stripes[i].lock.unlock();
+        }
+    }
+
+    /**
+     * obtain a holder from the pool of the stripe, the lock of {@code msg.what} must be held.
+     */
+    MessageHolder<M> obtain(final M msg, final long upTimeMills) {
+        final MessageHolder<M> holder = stripeOf(type.what(msg)).obtain();
+        holder.set(msg, type, upTimeMills);
+        return holder;
+    }
+
+    /**
+     * obtain a holder with the what only, which costs no message till it's delivered, the lock of
+     * {@code what} must be held.
+     */
+    MessageHolder<M> obtainWhatOnly(final int what, final long upTimeMills) {
+        final MessageHolder<M> holder = stripeOf(what).obtain();
+        holder.setWhatOnly(what, upTimeMills);
+        return holder;
+    }
+
+    /**
+     * The lock of the what must be held.
+     *
+     * @return the eldest pending holder of a message with the what, not a callback, null if none.
+     */
+    MessageHolder<M> first(final int what) {
+        for (MessageHolder<M> holder = stripeOf(what).whatIndex.get(what); holder != null;
+             holder = holder.chainNext[CHAIN_WHAT]) {
+            if (holder.callback == null) {
+                return holder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the messages with the what are coalesced, see {@link #coalesce(Object)}.
+     */
+    boolean isCoalesced(final int what) {
+        final IntArrayMap<Merger<M>> mergers = this.mergers;
+        return mergers != null && mergers.get(what) != null;
+    }
+
+    /**
+     * recycle a holder which has been removed from the list.
+     */
+    void recycle(final MessageHolder<M> holder) {
+        final Stripe<M> stripe = stripeOf(holder.what);
+        stripe.lock.lock();
+        try {
+            stripe.recycle(holder);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    boolean add(final M msg, final long delay) {
+        final Stripe<M> stripe = stripeOf(type.what(msg));
+        stripe.lock.lock();
+        try {
+            return add(obtain(msg, delay));
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    boolean add(MessageHolder<M> holder) {
+        final Stripe<M> stripe = stripeOf(holder.what);
+        stripe.lock.lock();
+        try {
+            if (NEED_LOG) {
+                logD("List:Change %d + 1 add", size());
+            }
+            return stripe.add(holder);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * remove all holders with the what.
+     *
+     * @return the count of holders removed.
+     */
+    int removeAll(final int what) {
+        final Stripe<M> stripe = stripeOf(what);
+        stripe.lock.lock();
+        try {
+            int count = 0;
+            while (stripe.remove(stripe.whatIndex.get(what))) {
+                count++;
+            }
+            return count;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * remove all holders with the what in the lane of {@link PausableScheduler}.
+     *
+     * @return the count of holders removed.
+     */
+    int removeAll(final int what, final int lane) {
+        final Stripe<M> stripe = stripeOf(what);
+        stripe.lock.lock();
+        try {
+            int count = 0;
+            MessageHolder<M> holder = stripe.whatIndex.get(what);
+            while (holder != null) {
+                final MessageHolder<M> next = holder.chainNext[CHAIN_WHAT];
+                if (holder.lane == lane) {
+                    stripe.remove(holder);
+                    count++;
+                }
+                holder = next;
+            }
+            return count;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * remove all holders with the what and the token.
+     *
+     * @param token the token of the holders, null for any.
+     * @return the count of holders removed.
+     */
+    int removeAll(final int what, final Object token) {
+        if (token == null) {
+            return removeAll(what);
+        }
+
+        final Stripe<M> stripe = stripeOf(what);
+        stripe.lock.lock();
+        try {
+            int count = 0;
+            MessageHolder<M> holder = stripe.whatIndex.get(what);
+            while (holder != null) {
+                final MessageHolder<M> next = holder.chainNext[CHAIN_WHAT];
+                if (holder.token == token) {
+                    stripe.remove(holder);
+                    count++;
+                }
+                holder = next;
+            }
+            return count;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * remove all holders with the token, both messages and callbacks.
+     *
+     * @return the count of holders removed.
+     */
+    int removeAllByToken(final Object token) {
+        int count = 0;
+        for (Stripe<M> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                while (stripe.remove(stripe.tokenIndex.get(token))) {
+                    count++;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * remove all holders whose message matches, stripe by stripe, the lock of the stripe is held
+     * while testing.
+     *
+     * @return the count of holders removed.
+     */
+    int removeIf(final Predicate<M> predicate) {
+        return removeIf(predicate, null);
+    }
+
+    /**
+     * remove all holders whose message matches in place, stripe by stripe, the lock of the stripe
+     * is held while testing.
+     * <p/>
+     * The host only removes by the what or the callback, which would take out the others with the
+     * same ones too, so once no holder with the what is left, the messages with it are taken out
+     * of the host queue at once, otherwise the ones removed are left there and dropped when the
+     * host takes them out, as they aren't registered anymore.
+     *
+     * @param host the host queue of the messages, or null if they aren't in a host queue.
+     * @return the count of holders removed.
+     */
+    int removeIf(final Predicate<M> predicate, final HostQueue<M> host) {
+        int count = 0;
+        for (Stripe<M> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                MessageHolder<M> holder = stripe.head;
+                while (holder != null) {
+                    final MessageHolder<M> next = holder.chainNext[CHAIN_ALL];
+                    final M msg = holder.materialize(type);
+                    if (msg != null && predicate.test(msg)) {
+                        final int what = holder.what;
+                        stripe.remove(holder);
+                        count++;
+                        if (host != null && stripe.whatIndex.get(what) == null) {
+                            // only the ones removed are left, including the callbacks with it.
+                            host.removeMessages(what);
+                        }
+                    }
+                    holder = next;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * remove all holders with the callback. The message with callback can be sent with any
+     * {@code what}, so we have to look up each stripe.
+     *
+     * @return the count of holders removed.
+     */
+    int removeAll(final Runnable callback) {
+        int count = 0;
+        for (Stripe<M> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                while (stripe.remove(stripe.callbackIndex.get(callback))) {
+                    count++;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * remove all holders with the callback and the token, in the chain of the callback.
+     *
+     * @param token the token of the callbacks, null for any.
+     * @return the count of holders removed.
+     */
+    int removeAll(final Runnable callback, final Object token) {
+        if (token == null) {
+            return removeAll(callback);
+        }
+
+        int count = 0;
+        for (Stripe<M> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                MessageHolder<M> holder = stripe.callbackIndex.get(callback);
+                while (holder != null) {
+                    final MessageHolder<M> next = holder.chainNext[CHAIN_CALLBACK];
+                    if (holder.token == token) {
+                        stripe.remove(holder);
+                        count++;
+                    }
+                    holder = next;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return count;
+    }
+
+    boolean remove(final MessageHolder<M> holder) {
+        final Stripe<M> stripe = stripeOf(holder.what);
+        stripe.lock.lock();
+        try {
+            return stripe.remove(holder);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * remove the holder of the message taken out of the host queue to deliver.
+     *
+     * @return the deadline of the message, {@link #NOT_REGISTERED} if it isn't registered.
+     */
+    long removeToDeliver(final M msg) {
+        final Stripe<M> stripe = stripeOf(type.what(msg));
+        stripe.lock.lock();
+        try {
+            final MessageHolder<M> holder = stripe.messageIndex.get(msg);
+            if (holder == null) {
+                return NOT_REGISTERED;
+            }
+
+            final long deadline = holder.deadline;
+            stripe.remove(holder);
+            return deadline;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    boolean remove(final M msg) {
+        final Stripe<M> stripe = stripeOf(type.what(msg));
+        stripe.lock.lock();
+        try {
+            return stripe.remove(stripe.messageIndex.get(msg));
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * stop the holder of the message and keep it, the message itself is going to be recycled by
+     * the host queue, but the holder has its copy.
+     *
+     * @param inTime whether the time of the message goes on, see
+     *               {@link MessageHolder#stopInTime(MessageType, long)}.
+     * @return whether the message is registered.
+     */
+    boolean hold(final M msg, final long now, final boolean inTime) {
+        final Stripe<M> stripe = stripeOf(type.what(msg));
+        stripe.lock.lock();
+        try {
+            final MessageHolder<M> holder = stripe.messageIndex.remove(msg);
+            if (holder == null) {
+                return false;
+            }
+
+            if (inTime && !holder.isStopped()) {
+                holder.stopInTime(type, now);
+            } else if (!holder.isStopped()) {
+                holder.stop(type, now);
+            }
+            holder.compareMsg = null;
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * stop all holders which haven't been stopped.
+     *
+     * @return the count of holders stopped.
+     */
+    int stopAll(final long now) {
+        int count = 0;
+        for (Stripe<M> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (MessageHolder<M> holder = stripe.head; holder != null;
+                     holder = holder.chainNext[CHAIN_ALL]) {
+                    if (!holder.isStopped()) {
+                        holder.stop(type, now);
+                        count++;
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * remove the holders of all whats whose latest message is kept on resume, but the latest one.
+     *
+     * @return the count of holders removed.
+     * @see #keepLatest(int)
+     */
+    int keepLatest() {
+        final IntArrayMap<Boolean> whats = this.keepLatestWhats;
+        if (whats == null) {
+            return 0;
+        }
+
+        int count = 0;
+        for (int i = 0; i < whats.size(); i++) {
+            count += keepLatest(whats.keyAt(i));
+        }
+        return count;
+    }
+
+    /**
+     * remove the holders of the what but the latest one, if its latest message is kept on
+     * resume. The ones still paused on their own and the ones with a callback are left as they
+     * are.
+     *
+     * @return the count of holders removed.
+     */
+    int keepLatest(final int what) {
+        final IntArrayMap<Boolean> whats = this.keepLatestWhats;
+        if (whats == null || whats.indexOfKey(what) < 0) {
+            return 0;
+        }
+
+        final Stripe<M> stripe = stripeOf(what);
+        stripe.lock.lock();
+        try {
+            int count = 0;
+            MessageHolder<M> latest = null;
+            MessageHolder<M> holder = stripe.whatIndex.get(what);
+            while (holder != null) {
+                final MessageHolder<M> next = holder.chainNext[CHAIN_WHAT];
+                if (holder.callback == null && !isPaused(holder)) {
+                    if (latest != null) {
+                        stripe.remove(latest);
+                        count++;
+                    }
+                    latest = holder;
+                }
+                holder = next;
+            }
+            return count;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * restart all stopped holders in place, in the order they are sent, the ones whose
+     * {@code what} or token is still paused on its own are kept stopped.
+     *
+     * @return the holders the restarter refused, removed from the list but not recycled, linked
+     * by {@link MessageHolder#nextInPool}.
+     */
+    MessageHolder<M> restartStopped(final Restarter<M> restarter) {
+        lockAll();
+        try {
+            return restartInOrder(null, restarter);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * @see #restartStopped(Restarter)
+     */
+    MessageHolder<M> restartStopped(final int what, final Restarter<M> restarter) {
+        final Stripe<M> stripe = stripeOf(what);
+        stripe.lock.lock();
+        try {
+            // all in one stripe, in the order they are sent already.
+            MessageHolder<M> refused = null;
+            MessageHolder<M> holder = stripe.whatIndex.get(what);
+            while (holder != null) {
+                final MessageHolder<M> next = holder.chainNext[CHAIN_WHAT];
+                refused = restart(stripe, holder, restarter, refused);
+                holder = next;
+            }
+            return refused;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @see #restartStopped(Restarter)
+     */
+    MessageHolder<M> restartStopped(final Object token, final Restarter<M> restarter) {
+        lockAll();
+        try {
+            return restartInOrder(token, restarter);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Merge the chains of all stripes by the order of sending, as the host queue keeps that order
+     * for the messages of the same time, so a pause and resume doesn't reorder them. All stripes
+     * must be locked.
+     *
+     * @param token the token of the chains to restart, null for all holders.
+     */
+    private MessageHolder<M> restartInOrder(final Object token, final Restarter<M> restarter) {
+        final int chain = token == null ? CHAIN_ALL : CHAIN_TOKEN;
+        final MessageHolder<M>[] cursors = this.cursors;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            cursors[i] = token == null ? stripes[i].head : stripes[i].tokenIndex.get(token);
+        }
+
+        MessageHolder<M> refused = null;
+        for (int eldest = eldestCursor(); eldest >= 0; eldest = eldestCursor()) {
+            final MessageHolder<M> holder = cursors[eldest];
+            cursors[eldest] = holder.chainNext[chain];
+            refused = restart(stripes[eldest], holder, restarter, refused);
+        }
+        // all cursors are null, nothing is left referenced.
+        return refused;
+    }
+
+    /**
+     * @return the stripe whose cursor is the eldest one sent, -1 if all cursors are null. All
+     * stripes must be locked.
+     */
+    private int eldestCursor() {
+        final MessageHolder<M>[] cursors = this.cursors;
+        int eldest = -1;
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            final MessageHolder<M> cursor = cursors[i];
+            if (cursor != null && (eldest < 0 || cursor.order < cursors[eldest].order)) {
+                eldest = i;
+            }
+        }
+        return eldest;
+    }
+
+    /**
+     * @param refused the holders refused so far.
+     * @return the holders refused, including this one if it's refused.
+     */
+    private MessageHolder<M> restart(final Stripe<M> stripe, final MessageHolder<M> holder,
+                                     final Restarter<M> restarter, MessageHolder<M> refused) {
+        if (!holder.isStopped() || isPaused(holder)) {
+            return refused;
+        }
+
+        // the message to compare is going to be the one held.
+        stripe.unindex(holder);
+        if (restarter.restart(holder)) {
+            stripe.messageIndex.put(holder.compareMsg, holder);
+        } else {
+            stripe.unlink(holder);
+            holder.nextInPool = refused;
+            refused = holder;
+        }
+        return refused;
+    }
+
+    public void clear() {
+        for (Stripe<M> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                MessageHolder<M> messageHolder = stripe.head;
+                stripe.clearButHoldMessage();
+                while (messageHolder != null) {
+                    final MessageHolder<M> next = messageHolder.chainNext[CHAIN_ALL];
+                    messageHolder.dead(type);
+                    stripe.onRemove(messageHolder);
+                    stripe.recycle(messageHolder);
+                    messageHolder = next;
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        logD("List:Change = 0 clear");
+    }
+
+    /**
+     * without lock, just a snapshot.
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe<M> stripe : stripes) {
+            size += stripe.size;
+        }
+        return size;
+    }
+
+    private static class Stripe<M> {
+        // guards the fields of the stripe.
+        final ReentrantLock lock = new ReentrantLock();
+        private final MessageHolderList<M> list;
+
+        private MessageHolder<M> head;
+        private volatile int size;
+
+        private MessageHolder<M> pool;
+        private int poolSize;
+
+        /**
+         * the compare message(the one in the host queue) -> holder
+         */
+        private final IdentityHashMap<Object, MessageHolder<M>> messageIndex =
+                new IdentityHashMap<>();
+        /**
+         * what -> the eldest holder with the what
+         */
+        private final IntArrayMap<MessageHolder<M>> whatIndex = new IntArrayMap<>();
+        /**
+         * callback -> the eldest holder with the callback
+         */
+        private final IdentityHashMap<Runnable, MessageHolder<M>> callbackIndex =
+                new IdentityHashMap<>();
+        /**
+         * token -> the eldest holder with the token
+         */
+        private final IdentityHashMap<Object, MessageHolder<M>> tokenIndex =
+                new IdentityHashMap<>();
+
+        Stripe(MessageHolderList<M> list) {
+            this.list = list;
+        }
+
+        MessageHolder<M> obtain() {
+            final MessageHolder<M> holder = pool;
+            if (holder == null) {
+                return new MessageHolder<>();
+            }
+
+            pool = holder.nextInPool;
+            holder.nextInPool = null;
+            poolSize--;
+            return holder;
+        }
+
+        boolean add(MessageHolder<M> holder) {
+            // the one with the what only is never looked up by its message.
+            final MessageHolder<M> stale = holder.compareMsg == null ? null
+                    : messageIndex.put(holder.compareMsg, holder);
+            if (stale != null) {
+                // The same message instance can't be in the host queue twice, so the previous one
+                // has been recycled by the host already.
+                if (stale.isStopped()) {
+                    // but it still holds the copy for resume.
+                    stale.compareMsg = null;
+                } else {
+                    stale.dead(list.type);
+                    unlink(stale);
+                    onRemove(stale);
+                    recycle(stale);
+                }
+            }
+
+            holder.order = list.sendCount.incrementAndGet();
+            head = append(head, holder, CHAIN_ALL);
+            whatIndex.put(holder.what, append(whatIndex.get(holder.what), holder, CHAIN_WHAT));
+            if (holder.callback != null) {
+                callbackIndex.put(holder.callback,
+                        append(callbackIndex.get(holder.callback), holder, CHAIN_CALLBACK));
+            }
+            if (holder.token != null) {
+                appendToken(holder);
+            }
+            size++;
+            return true;
+        }
+
+        boolean remove(final MessageHolder<M> holder) {
+            if (holder == null) {
+                return false;
+            }
+
+            if (NEED_LOG) {
+                logD("List:Change %d - 1 remove", size);
+            }
+            holder.dead(list.type);
+            unlink(holder);
+            onRemove(holder);
+            recycle(holder);
+            return true;
+        }
+
+        void onRemove(final MessageHolder<M> holder) {
+            final OnRemoveListener<M> listener = list.onRemoveListener;
+            if (listener != null) {
+                listener.onRemove(holder);
+            }
+        }
+
+        void recycle(final MessageHolder<M> holder) {
+            holder.clear();
+            if (poolSize < MAX_POOL_SIZE) {
+                holder.nextInPool = pool;
+                pool = holder;
+                poolSize++;
+            }
+        }
+
+        void unindex(MessageHolder<M> holder) {
+            if (holder.compareMsg != null && messageIndex.get(holder.compareMsg) == holder) {
+                messageIndex.remove(holder.compareMsg);
+            }
+        }
+
+        void unlink(MessageHolder<M> holder) {
+            unindex(holder);
+            head = MessageHolderList.unlink(head, holder, CHAIN_ALL);
+
+            final MessageHolder<M> whatHead = whatIndex.get(holder.what);
+            final MessageHolder<M> newWhatHead = MessageHolderList.unlink(whatHead, holder,
+                    CHAIN_WHAT);
+            if (newWhatHead == null) {
+                whatIndex.remove(holder.what);
+            } else if (newWhatHead != whatHead) {
+                whatIndex.put(holder.what, newWhatHead);
+            }
+
+            if (holder.callback != null) {
+                final MessageHolder<M> callbackHead = callbackIndex.get(holder.callback);
+                final MessageHolder<M> newCallbackHead = MessageHolderList.unlink(callbackHead,
+                        holder, CHAIN_CALLBACK);
+                if (newCallbackHead == null) {
+                    callbackIndex.remove(holder.callback);
+                } else if (newCallbackHead != callbackHead) {
+                    callbackIndex.put(holder.callback, newCallbackHead);
+                }
+            }
+
+            if (holder.token != null) {
+                unlinkToken(holder);
+            }
+
+            size--;
+        }
+
+        /**
+         * the token of the message has been changed, such as by a merger.
+         */
+        void retoken(final MessageHolder<M> holder, final Object token) {
+            if (holder.token != null) {
+                unlinkToken(holder);
+            }
+            holder.token = token;
+            if (token != null) {
+                appendToken(holder);
+            }
+        }
+
+        private void appendToken(final MessageHolder<M> holder) {
+            tokenIndex.put(holder.token, append(tokenIndex.get(holder.token), holder, CHAIN_TOKEN));
+        }
+
+        private void unlinkToken(final MessageHolder<M> holder) {
+            final MessageHolder<M> tokenHead = tokenIndex.get(holder.token);
+            final MessageHolder<M> newTokenHead = MessageHolderList.unlink(tokenHead, holder,
+                    CHAIN_TOKEN);
+            if (newTokenHead == null) {
+                tokenIndex.remove(holder.token);
+            } else if (newTokenHead != tokenHead) {
+                tokenIndex.put(holder.token, newTokenHead);
+            }
+        }
+
+        /**
+         * natural: in case of will be recycle by system framework, such as: will invoke sendMessage
+         * and Looper#looper will invoke recycleUnchecked to recycle Message.
+         */
+        void clearButHoldMessage() {
+            // the links of the dropped holders are left as it is, they are unreachable from now on.
+            head = null;
+            size = 0;
+            messageIndex.clear();
+            whatIndex.clear();
+            callbackIndex.clear();
+            tokenIndex.clear();
+        }
+    }
+
+    /**
+     * @return the head of the chain after appended.
+     */
+    private static <M> MessageHolder<M> append(final MessageHolder<M> head,
+                                               final MessageHolder<M> holder, final int chain) {
+        holder.chainNext[chain] = null;
+        if (head == null) {
+            holder.chainPrev[chain] = holder;
+            return holder;
+        }
+
+        final MessageHolder<M> tail = head.chainPrev[chain];
+        tail.chainNext[chain] = holder;
+        holder.chainPrev[chain] = tail;
+        head.chainPrev[chain] = holder;
+        return head;
+    }
+
+    /**
+     * @return the head of the chain after unlinked, {@code null} if the chain is empty.
+     */
+    private static <M> MessageHolder<M> unlink(final MessageHolder<M> head,
+                                               final MessageHolder<M> holder, final int chain) {
+        final MessageHolder<M> prev = holder.chainPrev[chain];
+        final MessageHolder<M> next = holder.chainNext[chain];
+        holder.chainPrev[chain] = null;
+        holder.chainNext[chain] = null;
+
+        if (holder == head) {
+            if (next != null) {
+                // prev is the tail.
+                next.chainPrev[chain] = prev;
+            }
+            return next;
+        }
+
+        prev.chainNext[chain] = next;
+        if (next != null) {
+            next.chainPrev[chain] = prev;
+        } else {
+            // the holder is the tail.
+            head.chainPrev[chain] = prev;
+        }
+        return head;
+    }
+}
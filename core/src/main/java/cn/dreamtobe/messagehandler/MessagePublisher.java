@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the messages of a {@link PausableHandler} to a subscriber with backpressure, in the
+ * shape of Reactive Streams and {@code java.util.concurrent.Flow}, so it's bridged to them with a
+ * few lines:
+ * <ul>
+ * <li>A message is handed to {@link Subscriber#onNext(Object)} instead of the callback of the
+ * handler only when the subscriber has requested it. Once the requested ones are used up, the
+ * messages due are held in place by the handler, the same as the pause of its group, and
+ * {@link Subscription#request(long)} delivers them.</li>
+ * <li>{@link #offer(Object)} refuses the message while the handler has {@code capacity} messages
+ * pending, so a producer outpacing the subscriber can't flood the queue.</li>
+ * <li>{@link PausableHandler#killSelf()} completes the stream, and
+ * {@link Subscription#cancel()} kills the handler.</li>
+ * </ul>
+ * Messages with a callback, such as the ones posted, are run as they are and don't count, but
+ * they are held along with the others to keep the order.
+ * <p/>
+ * The requested count is kept by an atomic counter, no lock is taken on each message while there
+ * is demand. The demand is exact when the messages are delivered one by one, such as on a
+ * Looper. The hold of the publisher is apart from {@link PausableHandler#pause()}: a request
+ * never resumes the handler paused by the app.
+ *
+ * @param <M> the type of the messages.
+ */
+public final class MessagePublisher<M> {
+
+    /**
+     * Receives the messages of the publisher, the same as
+     * {@code java.util.concurrent.Flow.Subscriber}.
+     */
+    public interface Subscriber<M> {
+        /**
+         * Invoked on the thread subscribing, nothing is published till the subscriber requests.
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Invoked on the thread the messages are delivered, the message is recycled after this,
+         * so copy it to keep it.
+         */
+        void onNext(M msg);
+
+        /**
+         * Invoked when the subscriber breaks the rules, such as requesting 0, or subscribes to a
+         * publisher which already has one.
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Invoked on the thread killing the handler, no message is published after this.
+         */
+        void onComplete();
+    }
+
+    /**
+     * The link between the publisher and its subscriber, the same as
+     * {@code java.util.concurrent.Flow.Subscription}.
+     */
+    public interface Subscription {
+        /**
+         * Add {@code n} to the count of messages to publish, {@link Long#MAX_VALUE} for all.
+         */
+        void request(long n);
+
+        /**
+         * Stop publishing and kill the handler, the pending messages are dropped.
+         */
+        void cancel();
+    }
+
+    private final PausableHandler<M> handler;
+    private final MessageType<M> type;
+    private final int capacity;
+
+    private volatile Subscriber<? super M> subscriber;
+    // the count of messages requested but not published yet, Long.MAX_VALUE for unbounded.
+    private final AtomicLong demand = new AtomicLong();
+    // the messages of the handler are held by this publisher as the demand is used up.
+    private volatile boolean held;
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private final Subscription subscription = new Subscription() {
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                final Subscriber<? super M> subscriber = MessagePublisher.this.subscriber;
+                cancel();
+                if (subscriber != null) {
+                    subscriber.onError(new IllegalArgumentException(
+                            "the count requested must be positive: " + n));
+                }
+                return;
+            }
+
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!demand.compareAndSet(current, next));
+
+            if (held) {
+                release();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            if (done.compareAndSet(false, true)) {
+                subscriber = null;
+                handler.killSelf();
+            }
+        }
+    };
+
+    /**
+     * @param handler  the handler whose messages are published, its callback and
+     *                 {@link PausableHandler#handleMessage(Object)} aren't invoked for the
+     *                 messages anymore.
+     * @param capacity the max count of messages pending on the handler to accept more by
+     *                 {@link #offer(Object)}, at least 1.
+     */
+    public MessagePublisher(final PausableHandler<M> handler, final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("the capacity must be at least 1: " + capacity);
+        }
+
+        this.handler = handler;
+        this.type = handler.type();
+        this.capacity = capacity;
+    }
+
+    /**
+     * Start publishing the messages of the handler to the subscriber, only one subscriber is
+     * allowed.
+     */
+    public void subscribe(final Subscriber<? super M> subscriber) {
+        synchronized (this) {
+            if (this.subscriber != null || done.get()) {
+                subscriber.onError(new IllegalStateException(
+                        "the publisher has already been subscribed"));
+                return;
+            }
+
+            this.subscriber = subscriber;
+        }
+
+        handler.setPublisher(this);
+        subscriber.onSubscribe(subscription);
+        if (handler.isDead()) {
+            onKill();
+        }
+    }
+
+    /**
+     * Send the message unless the handler has {@code capacity} messages pending, the messages
+     * held by pause count. The producers sending at the same time may each go past the
+     * capacity by one.
+     *
+     * @return whether the message is accepted, the message is recycled if it's refused for the
+     * capacity.
+     */
+    public boolean offer(final M msg) {
+        if (handler.pendingCount() >= capacity) {
+            type.recycle(msg);
+            return false;
+        }
+        return handler.sendMessage(msg);
+    }
+
+    /**
+     * The same as {@link #offer(Object)}, with an empty message.
+     */
+    public boolean offer(final int what) {
+        return handler.pendingCount() < capacity && handler.sendEmptyMessage(what);
+    }
+
+    /**
+     * Invoked by the handler before delivering the messages due, under its locks.
+     *
+     * @return whether the messages due have to be held as the demand is used up, the handler is
+     * woken by {@link PausableHandler#onRelease()} on the next request then.
+     */
+    boolean hold() {
+        if (subscriber == null || demand.get() > 0) {
+            return false;
+        }
+
+        held = true;
+        // the subscriber may request after the check above but before held is set.
+        return demand.get() == 0;
+    }
+
+    /**
+     * Take one of the demand for the message, on the thread it's delivered.
+     *
+     * @return whether the message is published, instead of dispatched by the handler.
+     */
+    boolean publish(final M msg) {
+        if (type.callback(msg) != null) {
+            return false;
+        }
+
+        final Subscriber<? super M> subscriber = this.subscriber;
+        if (subscriber == null) {
+            return false;
+        }
+
+        long current;
+        do {
+            current = demand.get();
+            // 0 only if more than one message is delivered at the same time.
+        } while (current != Long.MAX_VALUE && current > 0
+                && !demand.compareAndSet(current, current - 1));
+
+        subscriber.onNext(msg);
+        return true;
+    }
+
+    /**
+     * the handler is killed, complete the stream.
+     */
+    void onKill() {
+        final Subscriber<? super M> subscriber = this.subscriber;
+        if (subscriber != null && done.compareAndSet(false, true)) {
+            this.subscriber = null;
+            subscriber.onComplete();
+        }
+    }
+
+    private void release() {
+        held = false;
+        handler.onRelease();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * What {@link PausableHandler} needs to know about the type of its messages, so the same core
+ * carries {@link Envelope} on the JVM and {@code android.os.Message} on Android.
+ *
+ * @param <M> the type of the messages.
+ */
+public interface MessageType<M> {
+
+    /**
+     * @return an empty message with the what.
+     */
+    M obtain(int what);
+
+    /**
+     * @return a message which runs the callback when delivered.
+     */
+    M obtain(Runnable callback);
+
+    /**
+     * @return a message which runs the callback when delivered, with the token, see
+     * {@link #token(Object)}.
+     */
+    M obtain(Runnable callback, Object token);
+
+    int what(M msg);
+
+    /**
+     * @return the object messages are paused by, see
+     * {@link PausableHandler#pauseCallbacksAndMessages(Object)}.
+     */
+    Object token(M msg);
+
+    /**
+     * @return the callback run instead of handling the message, or null.
+     */
+    Runnable callback(M msg);
+
+    /**
+     * @return a copy to keep, as the message itself is going to be recycled by the host queue.
+     */
+    M copy(M msg);
+
+    /**
+     * replace the content of the pending message by the incoming one, for
+     * {@link PausableHandler#COALESCE_KEEP_LAST}.
+     */
+    void replace(M pending, M incoming);
+
+    /**
+     * the message is never touched by the handler after this.
+     */
+    void recycle(M msg);
+}
@@ -0,0 +1,2088 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The core of {@code MessageHandler} without Android: a handler whose messages can be paused,
+ * resumed, canceled and killed as a whole, on any {@link MessageType}, {@link Clock} and
+ * {@link Dispatcher}. On the JVM it carries {@link Envelope}s, such as:
+ * <pre>
+ * PausableHandler&lt;Envelope&gt; handler = new PausableHandler&lt;&gt;(Envelope.TYPE, executor,
+ *         1, PausableHandler.ORDER_NONE, callback);
+ * </pre>
+ * and with a {@link ManualDispatcher} as both the clock and the dispatcher, the time only moves
+ * in the test.
+ * <p/>
+ * support: pause, resume, stop
+ * performance: index holders instead of scanning, and in {@link #SCHEDULE_HOST_QUEUE} lock per
+ * stripe of {@code what} instead of a global lock
+ * <p/>
+ * Tips: All method thread safe
+ * <ul>
+ * <li>a message is registered and queued atomically with the check of pause and dead, so a
+ * message sent concurrently with {@link #pause()} is either held or removed by it, never
+ * delivered while paused nor lost.</li>
+ * <li>in {@link #SCHEDULE_HOST_QUEUE}, senders with different {@code what} never block each
+ * other. In {@link #SCHEDULE_HANDLER_QUEUE} and {@link #SCHEDULE_TIMER_WHEEL} all senders share the
+ * lock of the queue of this handler, held only for the O(1) or O(log n) enqueue.</li>
+ * <li>{@link #pause()}, {@link #resume()}, {@link #pausePriority(int)},
+ * {@link #resumePriority(int)}, {@link #cancelAllMessage()} and {@link #killSelf()} are serialized
+ * with each other.</li>
+ * </ul>
+ * <p/>
+ * Schedule modes({@link #setScheduleMode(int)}):
+ * <ul>
+ * <li>{@link #SCHEDULE_HANDLER_QUEUE}: messages are kept in the queue of this handler on a virtual
+ * clock which stops while paused, only one tick is scheduled on the dispatcher, pause and resume
+ * are O(1).</li>
+ * <li>{@link #SCHEDULE_TIMER_WHEEL}: the same as {@link #SCHEDULE_HANDLER_QUEUE}, but the queue is
+ * a hashed timer wheel, adding and removing are O(1), for lots of messages which are mostly
+ * removed before due, such as timeouts.</li>
+ * <li>{@link #SCHEDULE_HOST_QUEUE}: only for the handler on a queue of the host, such as the
+ * Looper queue of {@code MessageHandler}, messages are put into the host queue, pause and resume
+ * remove and re-post each pending message.</li>
+ * </ul>
+ *
+ * @param <M> the type of the messages.
+ */
+public class PausableHandler<M> {
+
+    /**
+     * Put messages into the queue of the host, such as the Looper queue.
+     */
+    static final int SCHEDULE_HOST_QUEUE = 0;
+    /**
+     * Keep messages in the queue of this handler on a virtual clock.
+     */
+    public static final int SCHEDULE_HANDLER_QUEUE = 1;
+    /**
+     * Keep messages in the timer wheel of this handler on a virtual clock.
+     */
+    public static final int SCHEDULE_TIMER_WHEEL = 2;
+
+    /**
+     * Each message is delivered, default.
+     */
+    public static final int COALESCE_NONE = 0;
+    /**
+     * Drop the message if there is a pending one with the same {@code what}.
+     */
+    public static final int COALESCE_KEEP_FIRST = 1;
+    /**
+     * Replace the content of the pending message with the same {@code what} by the message, the
+     * pending one keeps its time.
+     */
+    public static final int COALESCE_KEEP_LAST = 2;
+
+    /**
+     * @see #setCoalescePolicy(int, Merger)
+     */
+    public interface Merger<M> {
+        /**
+         * Merge the message being sent into the pending one with the same {@code what}, the
+         * message being sent is recycled after this.
+         * <p/>
+         * Invoked on the thread of the sender with the lock of the {@code what} held, so don't
+         * send or remove messages on the handler in it.
+         *
+         * @param pending  the pending message, still pending after this.
+         * @param incoming the message being sent.
+         */
+        void merge(M pending, M incoming);
+    }
+
+    /**
+     * @see #removeIf(Predicate)
+     */
+    public interface Predicate<M> {
+        /**
+         * Invoked with the lock of the messages held, so don't send or remove messages on the
+         * handler in it.
+         *
+         * @return whether the pending message is to be removed.
+         */
+        boolean test(M msg);
+    }
+
+    /**
+     * The lane of the messages dispatched before the others, such as the ones visible to the user.
+     */
+    public static final int PRIORITY_HIGH = 0;
+    /**
+     * The lane of the messages sent without a priority.
+     */
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * The lane of the messages dispatched after the others, such as the background bookkeeping.
+     */
+    public static final int PRIORITY_LOW = 2;
+    private static final int PRIORITY_COUNT = 3;
+
+    /**
+     * The messages delivered by more than one thread are in no order, default.
+     */
+    public static final int ORDER_NONE = 0;
+    /**
+     * The messages with the same {@code what} delivered by more than one thread are one by one in
+     * the order of their time, the ones with different {@code what}s are in parallel.
+     */
+    public static final int ORDER_BY_WHAT = 1;
+
+    /**
+     * All the messages held by pause are delivered on resume, default.
+     */
+    public static final int RESUME_ALL = 0;
+    /**
+     * Only the latest message with the {@code what} held by pause is delivered on resume, the
+     * stale ones are dropped, such as the ticks of an animation.
+     */
+    public static final int RESUME_KEEP_LATEST = 1;
+
+    /**
+     * The deadline of the message which never expires.
+     */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final static long TIMER_WHEEL_TICK_MILLIS = 1;
+    private final static int TIMER_WHEEL_SIZE = 512;
+
+    /**
+     * Handles the messages before {@link #handleMessage(Object)}, the same as
+     * {@code android.os.Handler.Callback}.
+     */
+    public interface Callback<M> {
+        /**
+         * @return whether the message is handled, {@link #handleMessage(Object)} isn't invoked if
+         * true.
+         */
+        boolean handleMessage(M msg);
+    }
+
+    /**
+     * @see #setOnStatsListener(OnStatsListener, long)
+     */
+    public interface OnStatsListener {
+        /**
+         * Invoked on the thread the messages are delivered, such as the one of the Looper or the
+         * executor, before dispatching a late message.
+         *
+         * @param stats    the snapshot of the stats.
+         * @param what     the {@code what} of the late message.
+         * @param lateness how late the message is, not counting the time paused.
+         */
+        void onLateMessage(MessageHandlerStats stats, int what, long lateness);
+    }
+
+    /**
+     * @see #setOnExpiredListener(OnExpiredListener)
+     */
+    public interface OnExpiredListener<M> {
+        /**
+         * Invoked when the message is dropped as it isn't delivered before its deadline, on the
+         * thread the messages are delivered or the one resuming, the message is recycled after
+         * this.
+         *
+         * @param msg the message expired.
+         */
+        void onExpired(M msg);
+    }
+
+    private volatile boolean isDead;
+    private volatile boolean isPause;
+    // some messages are held by the group or the publisher in the host queue mode, the ones sent
+    // are held too till they are all put back, so none is in front of the ones held before.
+    private volatile boolean isHolding;
+
+    private final Object stateLock = new Object();
+
+    private final MessageType<M> type;
+    private final Clock clock;
+    private final MessageHolderList<M> list;
+    private final Callback<M> callback;
+
+    // runs the tick of the handler-owned queue.
+    private final Dispatcher dispatcher;
+    private final int parallelism;
+    private final int order;
+    // null if the messages can't be put into the queue of the host.
+    private final HostQueue<M> host;
+
+    // null for SCHEDULE_HOST_QUEUE.
+    private volatile PausableScheduler<M> scheduler;
+
+    // the throttle of the handler-owned queue, kept for switching between schedule modes.
+    private int maxMessagesPerTurn;
+    private long maxMillisPerTurn;
+    private int messagesPerSecond;
+    private int burst;
+
+    // null while the stats is disabled.
+    private volatile StatsRecorder stats;
+    private volatile OnStatsListener onStatsListener;
+    private volatile long latenessThresholdMillis;
+    private volatile OnExpiredListener<M> onExpiredListener;
+    private volatile MessageHandlerGroup group;
+    private volatile FlowRecorder recorder;
+    private volatile MessagePublisher<M> publisher;
+
+    // the what to the uptime till which throttleFirst drops it, guarded by throttleLock.
+    private final Object throttleLock = new Object();
+    private IntLongArrayMap throttleWindows;
+    // the generation of the group last canceled on this handler.
+    private volatile long groupGeneration;
+
+    private final Merger<M> keepFirstMerger = new Merger<M>() {
+        @Override
+        public void merge(M pending, M incoming) {
+        }
+    };
+
+    private final Merger<M> keepLastMerger = new Merger<M>() {
+        @Override
+        public void merge(M pending, M incoming) {
+            type.replace(pending, incoming);
+        }
+    };
+
+    // resume in place: the holder and the message it holds are put back into the host queue as
+    // they are, so a pause and resume cycle allocates nothing.
+    private final MessageHolderList.Restarter<M> restarter =
+            new MessageHolderList.Restarter<M>() {
+                @Override
+                public boolean restart(MessageHolder<M> holder) {
+                    final long now = clock.uptimeMillis();
+                    if (now > holder.deadline) {
+                        return false;
+                    }
+
+                    final boolean atFront = holder.atFront;
+                    final long uptimeMillis = holder.resume(now);
+                    final M msg = holder.restart(atFront ? 0 : uptimeMillis);
+                    return msg != null && (atFront ? host.enqueueAtFront(msg)
+                            : host.enqueue(msg, uptimeMillis));
+                }
+            };
+
+    private final MessageHolderList.HolderVisitor<M> stopVisitor =
+            new MessageHolderList.HolderVisitor<M>() {
+                @Override
+                public void visit(MessageHolder<M> holder) {
+                    if (!holder.isStopped()) {
+                        holder.stop(type, clock.uptimeMillis());
+                    }
+                }
+            };
+
+    /**
+     * Deliver messages one by one on the dispatcher, in {@link #SCHEDULE_HANDLER_QUEUE}.
+     *
+     * @param type       the type of the messages, such as {@link Envelope#TYPE}.
+     * @param clock      the clock of all the times of this handler.
+     * @param dispatcher runs the tasks of this handler, on which the messages are delivered.
+     * @param callback   the callback interface in which to handle messages, or null.
+     */
+    public PausableHandler(final MessageType<M> type, final Clock clock,
+                           final Dispatcher dispatcher, final Callback<M> callback) {
+        this(type, clock, dispatcher, 1, ORDER_NONE, callback);
+    }
+
+    /**
+     * Deliver messages on the executor, such as a thread pool or a {@code ForkJoinPool}, on
+     * {@link Clock#SYSTEM}.
+     *
+     * @see #PausableHandler(MessageType, Clock, Dispatcher, int, int, Callback)
+     * @see ExecutorDispatcher
+     */
+    public PausableHandler(final MessageType<M> type, final Executor executor,
+                           final int parallelism, final int order, final Callback<M> callback) {
+        this(type, Clock.SYSTEM, new ExecutorDispatcher(executor, Clock.SYSTEM), parallelism,
+                order, callback);
+    }
+
+    /**
+     * Deliver messages on the dispatcher in {@link #SCHEDULE_HANDLER_QUEUE}, which can be changed
+     * to {@link #SCHEDULE_TIMER_WHEEL}.
+     * <p/>
+     * The messages whose time is up are delivered by up to {@code parallelism} tasks of the
+     * dispatcher at the same time. {@link #pause()} takes effect at once on the messages not
+     * being delivered yet.
+     *
+     * @param type        the type of the messages, such as {@link Envelope#TYPE}.
+     * @param clock       the clock of all the times of this handler.
+     * @param dispatcher  runs the tasks of this handler, on which the messages are delivered.
+     * @param parallelism the max count of messages delivered at the same time, at least 1.
+     * @param order       {@link #ORDER_NONE} or {@link #ORDER_BY_WHAT}.
+     * @param callback    the callback interface in which to handle messages, or null.
+     */
+    public PausableHandler(final MessageType<M> type, final Clock clock,
+                           final Dispatcher dispatcher, final int parallelism, final int order,
+                           final Callback<M> callback) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("the parallelism must be at least 1: "
+                    + parallelism);
+        }
+        if (order != ORDER_NONE && order != ORDER_BY_WHAT) {
+            throw new IllegalArgumentException("unknown order: " + order);
+        }
+
+        this.type = type;
+        this.clock = clock;
+        this.list = new MessageHolderList<>(type);
+        this.callback = callback;
+        this.dispatcher = dispatcher;
+        this.parallelism = parallelism;
+        this.order = order;
+        this.host = null;
+        isDead = false;
+        isPause = false;
+        setScheduleMode(SCHEDULE_HANDLER_QUEUE);
+    }
+
+    /**
+     * Put messages into the queue of the host in {@link #SCHEDULE_HOST_QUEUE}, the host delivers
+     * them itself after {@link #dispatchFromHost(Object, long)}.
+     *
+     * @param dispatcher runs the tick of the handler-owned queue, usually on the host too.
+     */
+    PausableHandler(final MessageType<M> type, final Clock clock, final HostQueue<M> host,
+                    final Dispatcher dispatcher) {
+        this.type = type;
+        this.clock = clock;
+        this.list = new MessageHolderList<>(type);
+        this.callback = null;
+        this.dispatcher = dispatcher;
+        this.parallelism = 1;
+        this.order = ORDER_NONE;
+        this.host = host;
+        isDead = false;
+        isPause = false;
+    }
+
+    /**
+     * for guarantee pause and killSelf in effect, the host asks this before delivering the
+     * message it takes out of its queue.
+     *
+     * @param when the uptime the message is scheduled at, 0 for the front of the queue.
+     * @return is consumed, the host mustn't deliver it.
+     */
+    boolean dispatchFromHost(final M msg, final long when) {
+        if (NEED_LOG) {
+            logD("dispatchMessage %B %B %d", isDead, isPause, list.size());
+        }
+        syncGroup();
+        if (isDead) {
+            return true;
+        }
+
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler != null && type.callback(msg) == scheduler) {
+            // the tick.
+            return false;
+        }
+
+        final int what = type.what(msg);
+        final long deadline;
+        list.lock(what);
+        try {
+            // pause
+            if (isPause || list.isPaused(msg)) {
+                // in case of pause happened after the host took the message out.
+                list.hold(msg, clock.uptimeMillis(), false);
+                return true;
+            }
+            if (isHeld()) {
+                // held by the pause of the group or the publisher till they are released, whose
+                // time goes on.
+                list.hold(msg, clock.uptimeMillis(), true);
+                isHolding = true;
+                return true;
+            }
+
+            // not registered: it has been canceled or held by pause, the message we held will be
+            // sent again on resume.
+            deadline = list.removeToDeliver(msg);
+        } finally {
+            list.unlock(what);
+        }
+
+        if (deadline == MessageHolderList.NOT_REGISTERED) {
+            return true;
+        }
+
+        if (deadline != NO_DEADLINE && clock.uptimeMillis() > deadline) {
+            // the host recycles it.
+            onExpire(msg);
+            return true;
+        }
+
+        final MessagePublisher<M> publisher = this.publisher;
+        if (stats != null || recorder != null) {
+            onDeliver(msg, when == 0 ? StatsRecorder.NO_LATENESS : clock.uptimeMillis() - when);
+        }
+        return publisher != null && publisher.publish(msg);
+    }
+
+    /**
+     * deliver the message which is never put into the host queue on the calling thread, and
+     * recycle it.
+     *
+     * @param lateness how late it is on the virtual clock, or {@link StatsRecorder#NO_LATENESS}
+     *                 for the message at the front of the queue.
+     */
+    void deliver(final M msg, final long lateness) {
+        final MessagePublisher<M> publisher = this.publisher;
+        onDeliver(msg, lateness);
+        if (publisher == null || !publisher.publish(msg)) {
+            dispatch(msg);
+        }
+        type.recycle(msg);
+    }
+
+    /**
+     * drop the message which is never put into the host queue as it's past its deadline, and
+     * recycle it.
+     */
+    void expire(final M msg) {
+        onExpire(msg);
+        type.recycle(msg);
+    }
+
+    private void onExpire(final M msg) {
+        record(FlowRecorder.ACTION_EXPIRE, type.what(msg));
+        final StatsRecorder stats = this.stats;
+        if (stats != null) {
+            stats.onExpire();
+        }
+
+        final OnExpiredListener<M> listener = onExpiredListener;
+        if (listener != null) {
+            listener.onExpired(msg);
+        }
+    }
+
+    /**
+     * run the callback of the message, or hand it to the {@link Callback} and then
+     * {@link #handleMessage(Object)}.
+     */
+    void dispatch(final M msg) {
+        final Runnable callback = type.callback(msg);
+        if (callback != null) {
+            callback.run();
+        } else if (this.callback == null || !this.callback.handleMessage(msg)) {
+            handleMessage(msg);
+        }
+    }
+
+    /**
+     * the message is going to be kept by the handler-owned queue instead of the host queue.
+     */
+    void adopt(final M msg) {
+    }
+
+    /**
+     * @return whether the calling thread is the one all messages are delivered on, such as the
+     * thread of the Looper. False for a dispatcher whose threads aren't known.
+     */
+    boolean isDeliveryThread() {
+        return false;
+    }
+
+    private void onDeliver(M msg, long lateness) {
+        final FlowRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.record(FlowRecorder.ACTION_DELIVER, type.what(msg), clock.uptimeMillis(),
+                    lateness);
+        }
+
+        final StatsRecorder stats = this.stats;
+        if (stats == null) {
+            return;
+        }
+
+        stats.onDeliver(lateness);
+        final OnStatsListener listener = onStatsListener;
+        if (listener != null && lateness != StatsRecorder.NO_LATENESS
+                && lateness >= latenessThresholdMillis) {
+            listener.onLateMessage(stats.snapshot(clock.uptimeMillis()), type.what(msg),
+                    lateness);
+        }
+    }
+
+    /**
+     * Register the message and queue it under the lock of its stripe, so {@link #pause()} and
+     * {@link #killSelf()} can't slip in between.
+     *
+     * @return whether the message is accepted(queued or held).
+     */
+    private boolean dispatchSendMessage(M msg, long uptimeMillis, boolean atFront,
+                                        int priority, long deadline) {
+        if (NEED_LOG) {
+            logD("dispatchSendMessage %B %B %d", isDead, isPause, list.size());
+        }
+        syncGroup();
+        final FlowRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recordSend(recorder, msg, atFront ? 0 : uptimeMillis, deadline, priority);
+        }
+
+        final boolean sent;
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler != null) {
+            adopt(msg);
+            sent = scheduler.send(msg, uptimeMillis, atFront, priority, deadline);
+        } else {
+            final int what = type.what(msg);
+            list.lock(what);
+            try {
+                sent = !isDead && (list.coalesce(msg) || sendMessageLocked(msg, uptimeMillis,
+                        atFront, isPause || list.isPaused(msg), deadline));
+            } finally {
+                list.unlock(what);
+            }
+        }
+
+        final StatsRecorder stats = this.stats;
+        if (sent && stats != null) {
+            stats.onSend(1, isPause);
+        }
+        return sent;
+    }
+
+    /**
+     * Send the empty message with the what only into the handler-owned queue, no message is
+     * obtained till it's delivered. The message is obtained at once on the host queue, which
+     * keeps messages, or if the what is coalesced.
+     */
+    private boolean dispatchSendWhat(int what, long uptimeMillis, int priority, long deadline) {
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler == null || list.isCoalesced(what)) {
+            return dispatchSendMessage(type.obtain(what), uptimeMillis, false, priority,
+                    deadline);
+        }
+
+        syncGroup();
+        final FlowRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recordSend(recorder, FlowRecorder.ACTION_SEND, what, uptimeMillis, deadline, priority,
+                    null, null);
+        }
+
+        final boolean sent = scheduler.sendWhatOnly(what, uptimeMillis, priority, deadline);
+        final StatsRecorder stats = this.stats;
+        if (sent && stats != null) {
+            stats.onSend(1, isPause);
+        }
+        return sent;
+    }
+
+    /**
+     * The lock of the what of {@code msg} must be held and the handler is not dead.
+     */
+    private boolean sendMessageLocked(M msg, long uptimeMillis, boolean atFront,
+                                      boolean isPause, long deadline) {
+        MessageHolder<M> messageHolder = list.obtain(msg, uptimeMillis);
+        messageHolder.atFront = atFront;
+        messageHolder.deadline = deadline;
+        list.add(messageHolder);
+
+        if (isPause) {
+            // never put into the host queue, so just hold it instead of copy.
+            messageHolder.takeOver();
+            messageHolder.stop(type, clock.uptimeMillis());
+            return true;
+        }
+        if (isHolding) {
+            messageHolder.takeOver();
+            messageHolder.stopInTime(type, clock.uptimeMillis());
+            return true;
+        }
+
+        final boolean sent = atFront ? host.enqueueAtFront(msg) : host.enqueue(msg, uptimeMillis);
+        if (!sent) {
+            list.remove(msg);
+        }
+        return sent;
+    }
+
+    /**
+     * Send messages in one pass: all stripes are locked once and the state is checked once for
+     * the whole batch, and the messages are accepted or held together with respect to
+     * {@link #pause()}.
+     *
+     * @return the count of messages accepted.
+     */
+    private int dispatchSendMessages(M[] msgs, long[] uptimeMillis) {
+        if (NEED_LOG) {
+            logD("dispatchSendMessages %B %B %d", isDead, isPause, msgs.length);
+        }
+        syncGroup();
+        final FlowRecorder recorder = this.recorder;
+        if (recorder != null) {
+            for (int i = 0; i < msgs.length; i++) {
+                recordSend(recorder, msgs[i], uptimeMillis[i], NO_DEADLINE, PRIORITY_NORMAL);
+            }
+        }
+
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler != null) {
+            for (M msg : msgs) {
+                adopt(msg);
+            }
+            return onSend(scheduler.send(msgs, uptimeMillis, PRIORITY_NORMAL));
+        }
+
+        int count = 0;
+        list.lockAll();
+        try {
+            if (isDead) {
+                return 0;
+            }
+
+            final boolean isPause = this.isPause;
+            for (int i = 0; i < msgs.length; i++) {
+                if (list.coalesce(msgs[i]) || sendMessageLocked(msgs[i], uptimeMillis[i], false,
+                        isPause || list.isPaused(msgs[i]), NO_DEADLINE)) {
+                    count++;
+                }
+            }
+        } finally {
+            list.unlockAll();
+        }
+
+        return onSend(count);
+    }
+
+    /**
+     * record before sending, as the message may be delivered and recycled on another thread at
+     * once.
+     *
+     * @param uptimeMillis the time to deliver, 0 for the front of the queue.
+     */
+    private void recordSend(final FlowRecorder recorder, final M msg, final long uptimeMillis,
+                            final long deadline, final int priority) {
+        final Runnable callback = type.callback(msg);
+        final int action = callback == null ? FlowRecorder.ACTION_SEND : FlowRecorder.ACTION_POST;
+        recordSend(recorder, action, type.what(msg), uptimeMillis, deadline, priority, callback,
+                type.token(msg));
+    }
+
+    private void recordSend(final FlowRecorder recorder, final int action, final int what,
+                            final long uptimeMillis, final long deadline, final int priority,
+                            final Runnable callback, final Object token) {
+        final long now = clock.uptimeMillis();
+        recorder.record(action, what, now, uptimeMillis == 0 ? -1 : Math.max(0, uptimeMillis - now),
+                deadline == NO_DEADLINE ? -1 : Math.max(0, deadline - now), priority,
+                FlowRecorder.identityOf(callback), FlowRecorder.identityOf(token));
+    }
+
+    private void record(final int action, final int what) {
+        final FlowRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.record(action, what, clock.uptimeMillis(), 0);
+        }
+    }
+
+    /**
+     * record the call on the lane or with the callback or token, see {@link FlowRecorder}.
+     */
+    private void record(final int action, final int what, final int lane, final Runnable callback,
+                        final Object token) {
+        final FlowRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.record(action, what, clock.uptimeMillis(), 0, -1, lane,
+                    FlowRecorder.identityOf(callback), FlowRecorder.identityOf(token));
+        }
+    }
+
+    private int onSend(int count) {
+        final StatsRecorder stats = this.stats;
+        if (count > 0 && stats != null) {
+            stats.onSend(count, isPause);
+        }
+        return count;
+    }
+
+    public void handleMessage(M msg) {
+    }
+
+    // ----------------------------------------------------------
+
+    /**
+     * pause and hold all message
+     */
+    public void pause() {
+        synchronized (stateLock) {
+            if (isPause) {
+                return;
+            }
+            isPause = true;
+            record(FlowRecorder.ACTION_PAUSE, 0);
+
+            final int count;
+            final PausableScheduler<M> scheduler = this.scheduler;
+            if (scheduler != null) {
+                scheduler.pause();
+                count = scheduler.size();
+            } else {
+                // the senders will hold their messages once the stripe is visited, so after this,
+                // the host queue only contains messages held by us.
+                count = list.stopAll(clock.uptimeMillis());
+                logD("pause %d", count);
+                host.removeCallbacksAndMessages(null);
+            }
+
+            final StatsRecorder stats = this.stats;
+            if (stats != null) {
+                stats.onPause(count, clock.uptimeMillis());
+            }
+        }
+    }
+
+    /**
+     * resume message
+     */
+    public void resume() {
+        synchronized (stateLock) {
+            if (!isPause) {
+                return;
+            }
+            record(FlowRecorder.ACTION_RESUME, 0);
+
+            final StatsRecorder stats = this.stats;
+            if (stats != null) {
+                stats.onResume(clock.uptimeMillis());
+            }
+
+            final PausableScheduler<M> scheduler = this.scheduler;
+            if (scheduler != null) {
+                isPause = false;
+                onSupersede(scheduler.resume());
+                return;
+            }
+
+            // while the senders still hold their messages.
+            onSupersede(list.keepLatest());
+            final MessageHolder<M> refused;
+            list.lockAll();
+            try {
+                // the senders see it resumed only after the messages held are back in the host
+                // queue, so a message sent later is never in front of them.
+                isPause = false;
+                isHolding = false;
+                refused = list.restartStopped(restarter);
+            } finally {
+                list.unlockAll();
+            }
+            dropRefused(refused);
+            logD("resume %d", list.size());
+        }
+    }
+
+    /**
+     * Pause and hold the messages with {@code what} only, the rest are left as they are, the
+     * same as {@link #pause()} for them: the time of each message stops, and the messages sent
+     * while paused are held too.
+     *
+     * @see #resumeMessages(int)
+     */
+    public void pauseMessages(final int what) {
+        synchronized (stateLock) {
+            record(FlowRecorder.ACTION_PAUSE_WHAT, what);
+            final PausableScheduler<M> scheduler = this.scheduler;
+            if (scheduler != null) {
+                scheduler.hold(what);
+                return;
+            }
+
+            if (!list.setPaused(what, true) || isPause) {
+                // not changed, or all of them are held by pause already.
+                return;
+            }
+
+            list.lock(what);
+            try {
+                list.forEach(what, stopVisitor);
+                host.removeMessages(what);
+            } finally {
+                list.unlock(what);
+            }
+        }
+    }
+
+    /**
+     * Resume the messages paused by {@link #pauseMessages(int)}, they are still held while
+     * {@link #pause()} or the pause of their token is in effect.
+     */
+    public void resumeMessages(final int what) {
+        synchronized (stateLock) {
+            record(FlowRecorder.ACTION_RESUME_WHAT, what);
+            final PausableScheduler<M> scheduler = this.scheduler;
+            if (scheduler != null) {
+                onSupersede(scheduler.release(what));
+                return;
+            }
+
+            final MessageHolder<M> refused;
+            list.lock(what);
+            try {
+                // the senders see it resumed only after the messages held are back, the same as
+                // resume().
+                if (!list.setPaused(what, false) || isPause) {
+                    return;
+                }
+                onSupersede(list.keepLatest(what));
+                refused = list.restartStopped(what, restarter);
+            } finally {
+                list.unlock(what);
+            }
+            dropRefused(refused);
+        }
+    }
+
+    /**
+     * Pause and hold the messages and callbacks whose token({@link MessageType#token(Object)}) is
+     * {@code token} only, the same as {@link #pauseMessages(int)}.
+     *
+     * @see #resumeCallbacksAndMessages(Object)
+     */
+    public void pauseCallbacksAndMessages(final Object token) {
+        if (token == null) {
+            throw new IllegalArgumentException("the token must not be null, use pause() instead");
+        }
+
+        synchronized (stateLock) {
+            record(FlowRecorder.ACTION_PAUSE_TOKEN, 0, FlowRecorder.NO_LANE, null, token);
+            final PausableScheduler<M> scheduler = this.scheduler;
+            if (scheduler != null) {
+                scheduler.hold(token);
+                return;
+            }
+
+            if (!list.setPaused(token, true) || isPause) {
+                return;
+            }
+
+            list.lockAll();
+            try {
+                list.forEach(token, stopVisitor);
+                host.removeCallbacksAndMessages(token);
+            } finally {
+                list.unlockAll();
+            }
+        }
+    }
+
+    /**
+     * Resume the messages and callbacks paused by {@link #pauseCallbacksAndMessages(Object)}.
+     */
+    public void resumeCallbacksAndMessages(final Object token) {
+        if (token == null) {
+            return;
+        }
+
+        synchronized (stateLock) {
+            record(FlowRecorder.ACTION_RESUME_TOKEN, 0, FlowRecorder.NO_LANE, null, token);
+            final PausableScheduler<M> scheduler = this.scheduler;
+            if (scheduler != null) {
+                scheduler.release(token);
+                return;
+            }
+
+            final MessageHolder<M> refused;
+            list.lockAll();
+            try {
+                // the same as resumeMessages(int).
+                if (!list.setPaused(token, false) || isPause) {
+                    return;
+                }
+                refused = list.restartStopped(token, restarter);
+            } finally {
+                list.unlockAll();
+            }
+            dropRefused(refused);
+        }
+    }
+
+    /**
+     * Expire the messages of the holders refused to restart, as they are past their deadline.
+     *
+     * @param holder the holders refused, linked by {@link MessageHolder#nextInPool}.
+     */
+    private void dropRefused(MessageHolder<M> holder) {
+        while (holder != null) {
+            final MessageHolder<M> next = holder.nextInPool;
+            holder.nextInPool = null;
+            // null if the host refused it, which has recycled it already.
+            final M msg = holder.takeMessage();
+            list.recycle(holder);
+            if (msg != null) {
+                expire(msg);
+            }
+            holder = next;
+        }
+    }
+
+    /**
+     * the messages dropped as only the latest one of their {@code what} is kept on resume.
+     */
+    private void onSupersede(final int count) {
+        final StatsRecorder stats = this.stats;
+        if (count > 0 && stats != null) {
+            stats.onDrop(count);
+        }
+    }
+
+    /**
+     * Only can be changed when there isn't any pending message and not paused.
+     *
+     * @param mode {@link #SCHEDULE_HANDLER_QUEUE}, {@link #SCHEDULE_TIMER_WHEEL}, or
+     *             {@link #SCHEDULE_HOST_QUEUE} for the handler on a host queue.
+     */
+    public void setScheduleMode(final int mode) {
+        synchronized (stateLock) {
+            if (isPause || list.size() > 0) {
+                throw new IllegalStateException("can't change the schedule mode while paused or "
+                        + "there are pending messages");
+            }
+
+            final PausableScheduler<M> scheduler;
+            switch (mode) {
+                case SCHEDULE_HOST_QUEUE:
+                    if (host == null) {
+                        throw new IllegalStateException("can't schedule on the host queue, such "
+                                + "as the Looper, while delivering on a dispatcher");
+                    }
+                    this.scheduler = null;
+                    list.setOnRemoveListener(null);
+                    maxMessagesPerTurn = 0;
+                    maxMillisPerTurn = 0;
+                    messagesPerSecond = 0;
+                    burst = 0;
+                    return;
+                case SCHEDULE_HANDLER_QUEUE:
+                case SCHEDULE_TIMER_WHEEL:
+                    final PendingQueue<M>[] queues = newQueues();
+                    for (int i = 0; i < PRIORITY_COUNT; i++) {
+                        queues[i] = mode == SCHEDULE_HANDLER_QUEUE ? new HeapPendingQueue<M>()
+                                : new TimerWheelPendingQueue<M>(TIMER_WHEEL_TICK_MILLIS,
+                                TIMER_WHEEL_SIZE);
+                    }
+                    scheduler = new PausableScheduler<>(list, queues, dispatcher, clock, this,
+                            parallelism, order);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown schedule mode: " + mode);
+            }
+
+            scheduler.setTurnBudget(maxMessagesPerTurn, maxMillisPerTurn);
+            scheduler.setRateLimit(messagesPerSecond, burst);
+            this.scheduler = scheduler;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M> PendingQueue<M>[] newQueues() {
+        return (PendingQueue<M>[]) new PendingQueue<?>[PRIORITY_COUNT];
+    }
+
+    /**
+     * Bound the time spent in this handler in each turn of the dispatcher, such as a frame on the
+     * main thread: once the budget is used up, the rest of the messages whose time is up are
+     * deferred to the next turn, behind the tasks already on the dispatcher.
+     * <p/>
+     * Only works in {@link #SCHEDULE_HANDLER_QUEUE} and {@link #SCHEDULE_TIMER_WHEEL}, as the
+     * deferred messages are kept by this handler, it's reset when switching to
+     * {@link #SCHEDULE_HOST_QUEUE}.
+     *
+     * @param maxMessages the max count of messages to dispatch in one turn, 0 for unlimited.
+     * @param maxMillis   the max time to dispatch messages in one turn, the message being
+     *                    dispatched when it's up is never interrupted, 0 for unlimited.
+     */
+    public void setTurnBudget(final int maxMessages, final long maxMillis) {
+        synchronized (stateLock) {
+            final PausableScheduler<M> scheduler = requireScheduler("the turn budget");
+            maxMessagesPerTurn = Math.max(0, maxMessages);
+            maxMillisPerTurn = Math.max(0, maxMillis);
+            scheduler.setTurnBudget(maxMessagesPerTurn, maxMillisPerTurn);
+        }
+    }
+
+    /**
+     * Cap the rate of dispatching with a token bucket, the messages beyond it are deferred until
+     * there is a token. The time paused doesn't fill the bucket more than {@code burst}.
+     * <p/>
+     * Only works in {@link #SCHEDULE_HANDLER_QUEUE} and {@link #SCHEDULE_TIMER_WHEEL}, it's reset
+     * when switching to {@link #SCHEDULE_HOST_QUEUE}.
+     *
+     * @param messagesPerSecond the max count of messages to dispatch per second, 0 for unlimited.
+     * @param burst             the max count of messages to dispatch at once after idle.
+     */
+    public void setRateLimit(final int messagesPerSecond, final int burst) {
+        synchronized (stateLock) {
+            final PausableScheduler<M> scheduler = requireScheduler("the rate limit");
+            this.messagesPerSecond = Math.max(0, messagesPerSecond);
+            this.burst = Math.max(1, burst);
+            scheduler.setRateLimit(this.messagesPerSecond, this.burst);
+        }
+    }
+
+    private PausableScheduler<M> requireScheduler(final String feature) {
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler == null) {
+            throw new IllegalStateException(feature + " only works in SCHEDULE_HANDLER_QUEUE or "
+                    + "SCHEDULE_TIMER_WHEEL");
+        }
+        return scheduler;
+    }
+
+    private static void checkPriority(final int priority) {
+        if (priority < 0 || priority >= PRIORITY_COUNT) {
+            throw new IllegalArgumentException("unknown priority: " + priority);
+        }
+    }
+
+    public boolean isPaused() {
+        return this.isPause;
+    }
+
+    /**
+     * Pause and hold the messages of the priority only, the time of the lane stops, the same as
+     * {@link #pause()}. Only works in {@link #SCHEDULE_HANDLER_QUEUE} and
+     * {@link #SCHEDULE_TIMER_WHEEL}.
+     *
+     * @param priority {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL} or {@link #PRIORITY_LOW}.
+     */
+    public void pausePriority(final int priority) {
+        checkPriority(priority);
+        synchronized (stateLock) {
+            final PausableScheduler<M> scheduler = requireScheduler("pausing a priority");
+            if (isDead) {
+                return;
+            }
+            record(FlowRecorder.ACTION_PAUSE, 0, priority, null, null);
+            scheduler.pause(priority);
+        }
+    }
+
+    /**
+     * Resume the messages of the priority paused by {@link #pausePriority(int)}, they are still
+     * held while {@link #pause()} is in effect.
+     *
+     * @param priority {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL} or {@link #PRIORITY_LOW}.
+     */
+    public void resumePriority(final int priority) {
+        checkPriority(priority);
+        synchronized (stateLock) {
+            final PausableScheduler<M> scheduler = requireScheduler("resuming a priority");
+            if (isDead) {
+                return;
+            }
+            record(FlowRecorder.ACTION_RESUME, 0, priority, null, null);
+            scheduler.resume(priority);
+        }
+    }
+
+    /**
+     * @return whether the priority is paused by {@link #pausePriority(int)}.
+     */
+    public boolean isPriorityPaused(final int priority) {
+        checkPriority(priority);
+        final PausableScheduler<M> scheduler = this.scheduler;
+        return scheduler != null && scheduler.isPaused(priority);
+    }
+
+    /**
+     * @return whether the priorities work, in {@link #SCHEDULE_HANDLER_QUEUE} and
+     * {@link #SCHEDULE_TIMER_WHEEL}.
+     */
+    boolean hasLanes() {
+        return scheduler != null;
+    }
+
+    public boolean isDead() {
+        return this.isDead;
+    }
+
+    /**
+     * cancel all message send by this handler
+     */
+    public void cancelAllMessage() {
+        synchronized (stateLock) {
+            logD("cancelAllMessage %B %B %d", isDead, isPause, list.size());
+            record(FlowRecorder.ACTION_CANCEL, 0);
+            onDrop();
+            closeThrottleWindows();
+            final PausableScheduler<M> scheduler = this.scheduler;
+            if (scheduler != null) {
+                scheduler.clear();
+                return;
+            }
+
+            // no message is sent in between, so no holder is left without its message for
+            // coalescing.
+            list.lockAll();
+            try {
+                host.removeCallbacksAndMessages(null);
+                list.clear();
+                isHolding = false;
+            } finally {
+                list.unlockAll();
+            }
+        }
+    }
+
+    /**
+     * this handler do not valid anymore
+     */
+    public void killSelf() {
+        synchronized (stateLock) {
+            logD("killSelf %B %B %d", isDead, isPause, list.size());
+            record(FlowRecorder.ACTION_KILL, 0);
+            isDead = true;
+            final PausableScheduler<M> scheduler = this.scheduler;
+            if (scheduler != null) {
+                onDrop();
+                closeThrottleWindows();
+                scheduler.kill();
+            } else {
+                cancelAllMessage();
+            }
+        }
+
+        final MessagePublisher<M> publisher = this.publisher;
+        if (publisher != null) {
+            publisher.onKill();
+        }
+    }
+
+    private void onDrop() {
+        final StatsRecorder stats = this.stats;
+        if (stats != null) {
+            stats.onDrop(list.size());
+        }
+    }
+
+    /**
+     * Collapse the message sent with {@code what} into the pending one with the same
+     * {@code what}, instead of queueing another. It's also in effect while paused, the message
+     * held by pause is the pending one. Messages with a callback are never coalesced.
+     *
+     * @param what   the what of the messages.
+     * @param policy {@link #COALESCE_NONE}, {@link #COALESCE_KEEP_FIRST} or
+     *               {@link #COALESCE_KEEP_LAST}.
+     * @see #setCoalescePolicy(int, Merger)
+     */
+    public void setCoalescePolicy(final int what, final int policy) {
+        switch (policy) {
+            case COALESCE_NONE:
+                list.setMerger(what, null);
+                break;
+            case COALESCE_KEEP_FIRST:
+                list.setMerger(what, keepFirstMerger);
+                break;
+            case COALESCE_KEEP_LAST:
+                list.setMerger(what, keepLastMerger);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown coalesce policy: " + policy);
+        }
+    }
+
+    /**
+     * Merge the message sent with {@code what} into the pending one with the same {@code what}
+     * by the merger, instead of queueing another.
+     *
+     * @param what   the what of the messages.
+     * @param merger the merger, or null for {@link #COALESCE_NONE}.
+     * @see #setCoalescePolicy(int, int)
+     */
+    public void setCoalescePolicy(final int what, final Merger<M> merger) {
+        list.setMerger(what, merger);
+    }
+
+    /**
+     * Drop the stale messages with {@code what} held by pause when resumed, only the latest one
+     * sent is delivered, so hundreds of them don't fire at once after a long pause. It's in
+     * effect on {@link #resume()} and {@link #resumeMessages(int)}, the messages still paused by
+     * their {@code what} or token and the ones with a callback are left as they are.
+     *
+     * @param what   the what of the messages.
+     * @param policy {@link #RESUME_ALL} or {@link #RESUME_KEEP_LATEST}.
+     */
+    public void setResumePolicy(final int what, final int policy) {
+        if (policy != RESUME_ALL && policy != RESUME_KEEP_LATEST) {
+            throw new IllegalArgumentException("unknown resume policy: " + policy);
+        }
+
+        list.setKeepLatest(what, policy == RESUME_KEEP_LATEST);
+    }
+
+    /**
+     * @param listener notified of each message dropped as it's past its deadline, or null to
+     *                 remove.
+     * @see #sendMessageWithDeadline(Object, long, long)
+     */
+    public void setOnExpiredListener(final OnExpiredListener<M> listener) {
+        this.onExpiredListener = listener;
+    }
+
+    /**
+     * Record the flow of this handler into the recorder, see {@link FlowRecorder}. When not set,
+     * it costs nothing more than reading a volatile field on each message.
+     *
+     * @param recorder the recorder, or null to stop recording.
+     */
+    public void setFlowRecorder(final FlowRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Join the group, so this handler is paused, resumed, canceled and killed along with the
+     * other handlers of the group in one call, see {@link MessageHandlerGroup}.
+     *
+     * @param group the group to join, or null to leave the group.
+     */
+    public void setGroup(final MessageHandlerGroup group) {
+        final MessageHandlerGroup oldGroup;
+        synchronized (stateLock) {
+            oldGroup = this.group;
+            this.groupGeneration = group == null ? 0 : group.generation();
+            this.group = group;
+        }
+
+        syncGroup();
+        if (oldGroup != null) {
+            // the messages held by the old one.
+            onRelease();
+        }
+    }
+
+    public MessageHandlerGroup getGroup() {
+        return group;
+    }
+
+    /**
+     * hand the messages to the publisher instead of dispatching them, see
+     * {@link MessagePublisher#subscribe(MessagePublisher.Subscriber)}.
+     */
+    void setPublisher(final MessagePublisher<M> publisher) {
+        this.publisher = publisher;
+    }
+
+    MessageType<M> type() {
+        return type;
+    }
+
+    /**
+     * @return the count of messages pending, including the ones held by pause, without any lock.
+     */
+    int pendingCount() {
+        return list.size();
+    }
+
+    /**
+     * apply the cancel and kill of the group since the last time, the locks of the list and the
+     * scheduler must not be held.
+     */
+    void syncGroup() {
+        final MessageHandlerGroup group = this.group;
+        if (group == null) {
+            return;
+        }
+
+        if (group.isDead()) {
+            if (!isDead) {
+                killSelf();
+            }
+            return;
+        }
+
+        final long generation = group.generation();
+        if (generation == groupGeneration) {
+            return;
+        }
+
+        synchronized (stateLock) {
+            if (this.group == group && generation != groupGeneration) {
+                groupGeneration = generation;
+                cancelAllMessage();
+            }
+        }
+    }
+
+    /**
+     * Hold the messages due apart from {@link #pause()}, while the group is paused or the
+     * publisher has no demand, this handler is woken by {@link #onRelease()} then.
+     *
+     * @return whether the messages due have to be held.
+     */
+    boolean isHeld() {
+        final MessageHandlerGroup group = this.group;
+        if (group != null && group.hold(this)) {
+            return true;
+        }
+
+        final MessagePublisher<M> publisher = this.publisher;
+        return publisher != null && publisher.hold();
+    }
+
+    /**
+     * deliver the messages held by the pause of the group or by the publisher, unless this handler
+     * is paused itself or still held.
+     */
+    void onRelease() {
+        synchronized (stateLock) {
+            if (isDead || isPause || isHeld()) {
+                return;
+            }
+
+            final PausableScheduler<M> scheduler = this.scheduler;
+            if (scheduler != null) {
+                scheduler.wake();
+                return;
+            }
+
+            final MessageHolder<M> refused;
+            list.lockAll();
+            try {
+                // the same as resume().
+                isHolding = false;
+                refused = list.restartStopped(restarter);
+            } finally {
+                list.unlockAll();
+            }
+            dropRefused(refused);
+        }
+    }
+
+    /**
+     * Enable or disable the stats, enabling again resets it. When disabled, it costs nothing
+     * more than reading a volatile field on each message.
+     *
+     * @see #getStats()
+     * @see #setOnStatsListener(OnStatsListener, long)
+     */
+    public void setStatsEnabled(final boolean enabled) {
+        synchronized (stateLock) {
+            final StatsRecorder stats = enabled ? new StatsRecorder(list) : null;
+            if (stats != null && isPause) {
+                stats.onPause(0, clock.uptimeMillis());
+            }
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * @return the snapshot of the stats, or null if the stats isn't enabled.
+     * @see #setStatsEnabled(boolean)
+     */
+    public MessageHandlerStats getStats() {
+        final StatsRecorder stats = this.stats;
+        return stats == null ? null : stats.snapshot(clock.uptimeMillis());
+    }
+
+    /**
+     * Push the stats to the listener when a message is dispatched late, to find the handler whose
+     * backlog causes jank. Only works while the stats is enabled.
+     *
+     * @param listener                the listener, or null to remove.
+     * @param latenessThresholdMillis how late a message is that the listener is notified.
+     * @see #setStatsEnabled(boolean)
+     */
+    public void setOnStatsListener(final OnStatsListener listener,
+                                   final long latenessThresholdMillis) {
+        this.latenessThresholdMillis = latenessThresholdMillis;
+        this.onStatsListener = listener;
+    }
+
+    /**
+     * The same as {@code Handler#sendEmptyMessage(int)}.
+     */
+    public boolean sendEmptyMessage(int what) {
+        return sendEmptyMessageDelayed(what, 0);
+    }
+
+    /**
+     * The same as {@code Handler#sendEmptyMessageDelayed(int, long)}.
+     */
+    public boolean sendEmptyMessageDelayed(int what, long delayMillis) {
+        return dispatchSendWhat(what, clock.uptimeMillis() + Math.max(0, delayMillis),
+                PRIORITY_NORMAL, NO_DEADLINE);
+    }
+
+    /**
+     * The same as {@code Handler#sendMessage(Message)}.
+     */
+    public boolean sendMessage(M msg) {
+        return sendMessageDelayed(msg, 0);
+    }
+
+    /**
+     * The same as {@code Handler#sendMessageDelayed(Message, long)}.
+     */
+    public boolean sendMessageDelayed(M msg, long delayMillis) {
+        return sendMessageAtTime(msg, clock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    /**
+     * The same as {@code Handler#sendMessageAtTime(Message, long)}.
+     *
+     * @param uptimeMillis the time to deliver on the {@link Clock} of this handler.
+     */
+    public boolean sendMessageAtTime(M msg, long uptimeMillis) {
+        return dispatchSendMessage(msg, uptimeMillis, false, PRIORITY_NORMAL, NO_DEADLINE);
+    }
+
+    /**
+     * Send the message which is dropped instead of delivered if it isn't delivered by the
+     * deadline, such as held by pause till then. The deadline is on the {@link Clock} of this
+     * handler, the time paused counts. The message expired is dropped on resume or when it's
+     * due, without reaching {@link #handleMessage(Object)}.
+     *
+     * @param uptimeMillis   the time to deliver.
+     * @param deadlineMillis the time after which the message expires.
+     * @see #setOnExpiredListener(OnExpiredListener)
+     */
+    public boolean sendMessageWithDeadline(M msg, long uptimeMillis, long deadlineMillis) {
+        return dispatchSendMessage(msg, uptimeMillis, false, PRIORITY_NORMAL, deadlineMillis);
+    }
+
+    /**
+     * @param delayMillis the delay to deliver.
+     * @param ttlMillis   how long the message lives from now, it expires if it isn't delivered by
+     *                    then, so it should be more than {@code delayMillis}.
+     * @see #sendMessageWithDeadline(Object, long, long)
+     */
+    public boolean sendMessageWithTtl(M msg, long delayMillis, long ttlMillis) {
+        final long now = clock.uptimeMillis();
+        return sendMessageWithDeadline(msg, now + Math.max(0, delayMillis),
+                now + Math.max(0, ttlMillis));
+    }
+
+    /**
+     * @see #sendMessageWithTtl(Object, long, long)
+     */
+    public boolean sendEmptyMessageWithTtl(int what, long delayMillis, long ttlMillis) {
+        final long now = clock.uptimeMillis();
+        return dispatchSendWhat(what, now + Math.max(0, delayMillis), PRIORITY_NORMAL,
+                now + Math.max(0, ttlMillis));
+    }
+
+    /**
+     * Send the message into the lane of the priority, the messages whose time is up are
+     * dispatched from the lane with the higher priority first, a lane overtaken for a while is
+     * dispatched first so it isn't starved. Only works in {@link #SCHEDULE_HANDLER_QUEUE} and
+     * {@link #SCHEDULE_TIMER_WHEEL}.
+     *
+     * @param priority {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL} or {@link #PRIORITY_LOW}.
+     * @see #sendMessageAtTime(Object, long)
+     */
+    public boolean sendMessageAtTime(M msg, long uptimeMillis, int priority) {
+        checkPriority(priority);
+        requireScheduler("sending with a priority");
+        return dispatchSendMessage(msg, uptimeMillis, false, priority, NO_DEADLINE);
+    }
+
+    /**
+     * @see #sendMessageAtTime(Object, long, int)
+     */
+    public boolean sendMessageDelayed(M msg, long delayMillis, int priority) {
+        return sendMessageAtTime(msg, clock.uptimeMillis() + Math.max(0, delayMillis),
+                priority);
+    }
+
+    /**
+     * @see #sendMessageAtTime(Object, long, int)
+     */
+    public boolean sendEmptyMessageDelayed(int what, long delayMillis, int priority) {
+        checkPriority(priority);
+        requireScheduler("sending with a priority");
+        return dispatchSendWhat(what, clock.uptimeMillis() + Math.max(0, delayMillis), priority,
+                NO_DEADLINE);
+    }
+
+    /**
+     * The batch version of {@link #sendMessageAtTime(Object, long)}, much cheaper than sending
+     * them one by one for bursts of messages, and {@link #pause()} takes effect on the whole batch
+     * or none of it.
+     *
+     * @param msgs         the messages to send.
+     * @param uptimeMillis the uptime to deliver for each message in {@code msgs}.
+     * @return the count of messages accepted.
+     */
+    public int sendMessagesAtTime(M[] msgs, long[] uptimeMillis) {
+        if (msgs.length != uptimeMillis.length) {
+            throw new IllegalArgumentException(String.format("the count of messages(%d) doesn't "
+                    + "match the count of uptime(%d)", msgs.length, uptimeMillis.length));
+        }
+
+        return dispatchSendMessages(msgs, uptimeMillis);
+    }
+
+    /**
+     * The batch version of {@link #sendEmptyMessageDelayed(int, long)}.
+     *
+     * @param whats       the {@code what} of each empty message to send.
+     * @param delayMillis the delay for each message in {@code whats}.
+     * @return the count of messages accepted.
+     * @see #sendMessagesAtTime(Object[], long[])
+     */
+    public int sendEmptyMessagesDelayed(int[] whats, long[] delayMillis) {
+        if (whats.length != delayMillis.length) {
+            throw new IllegalArgumentException(String.format("the count of whats(%d) doesn't "
+                    + "match the count of delay(%d)", whats.length, delayMillis.length));
+        }
+
+        final int count = whats.length;
+        final long[] uptimeMillis = new long[count];
+        final long now = clock.uptimeMillis();
+        boolean coalesced = false;
+        for (int i = 0; i < count; i++) {
+            uptimeMillis[i] = now + Math.max(0, delayMillis[i]);
+            coalesced |= list.isCoalesced(whats[i]);
+        }
+
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler != null && !coalesced) {
+            syncGroup();
+            final FlowRecorder recorder = this.recorder;
+            if (recorder != null) {
+                for (int i = 0; i < count; i++) {
+                    recordSend(recorder, FlowRecorder.ACTION_SEND, whats[i], uptimeMillis[i],
+                            NO_DEADLINE, PRIORITY_NORMAL, null, null);
+                }
+            }
+            return onSend(scheduler.sendWhatOnly(whats, uptimeMillis, PRIORITY_NORMAL));
+        }
+
+        @SuppressWarnings("unchecked")
+        final M[] msgs = (M[]) new Object[count];
+        for (int i = 0; i < count; i++) {
+            msgs[i] = type.obtain(whats[i]);
+        }
+        return dispatchSendMessages(msgs, uptimeMillis);
+    }
+
+    /**
+     * Deliver an empty message with {@code what} once there is no more call for
+     * {@code windowMillis}, such as searching after the last keystroke: the pending message with
+     * {@code what} is put off to {@code windowMillis} from now, or an empty one is sent if there
+     * isn't. Instead of {@link #removeMessages(int)} and then
+     * {@link #sendEmptyMessageDelayed(int, long)} on each call.
+     * <p/>
+     * In {@link #SCHEDULE_HANDLER_QUEUE} and {@link #SCHEDULE_TIMER_WHEEL} the pending message is
+     * moved in place, nothing is allocated. The Looper queue can't put a message off, so it's
+     * replaced in {@link #SCHEDULE_LOOPER}. The window of the message held by pause counts from
+     * the resume, the same as a delay.
+     *
+     * @return whether the message is accepted.
+     */
+    public boolean debounce(final int what, final long windowMillis) {
+        return schedule(what, clock.uptimeMillis() + Math.max(0, windowMillis), true);
+    }
+
+    /**
+     * Deliver an empty message with {@code what} at most once per {@code windowMillis}, at the end
+     * of the window, such as refreshing on scrolling: the calls while a message with {@code what}
+     * is pending are absorbed by it, otherwise an empty one is sent with {@code windowMillis}
+     * delayed. The same as {@link #debounce(int, long)} on pause.
+     *
+     * @return whether the message is accepted or absorbed.
+     */
+    public boolean throttleLast(final int what, final long windowMillis) {
+        return schedule(what, clock.uptimeMillis() + Math.max(0, windowMillis), false);
+    }
+
+    /**
+     * Send an empty message with {@code what} at once unless one has been sent by this within the
+     * last {@code windowMillis}, such as handling the first of the clicks in a row. The window
+     * goes on while paused, the message sent is held and delivered on resume. The window is
+     * closed by {@link #removeMessages(int)}, {@link #cancelAllMessage()} and {@link #killSelf()}.
+     *
+     * @return whether the message is accepted, false if it's dropped within the window.
+     */
+    public boolean throttleFirst(final int what, final long windowMillis) {
+        final long now = clock.uptimeMillis();
+        synchronized (throttleLock) {
+            if (throttleWindows == null) {
+                throttleWindows = new IntLongArrayMap();
+            }
+
+            if (now < throttleWindows.get(what, Long.MIN_VALUE)) {
+                return false;
+            }
+            if (throttleWindows.isFull()) {
+                // the closed windows are of no use, drop them rather than grow.
+                throttleWindows.removeValuesBelow(now + 1);
+            }
+            throttleWindows.put(what, now + Math.max(0, windowMillis));
+        }
+
+        return sendEmptyMessage(what);
+    }
+
+    private void closeThrottleWindow(final int what) {
+        synchronized (throttleLock) {
+            if (throttleWindows != null) {
+                throttleWindows.remove(what);
+            }
+        }
+    }
+
+    private void closeThrottleWindows() {
+        synchronized (throttleLock) {
+            throttleWindows = null;
+        }
+    }
+
+    /**
+     * @param putOff put the pending message with the what off to the uptime, otherwise keep it.
+     */
+    private boolean schedule(final int what, final long uptimeMillis, final boolean putOff) {
+        syncGroup();
+        final PausableScheduler<M> scheduler = this.scheduler;
+        final int result = scheduler != null ? scheduler.schedule(what, uptimeMillis, putOff)
+                : scheduleOnHost(what, uptimeMillis, putOff);
+        if (result == PausableScheduler.SCHEDULE_REFUSED) {
+            return false;
+        }
+        if (result == PausableScheduler.SCHEDULE_KEPT) {
+            return true;
+        }
+
+        final FlowRecorder recorder = this.recorder;
+        if (recorder != null) {
+            // recorded as removed and sent again, so the replay does the same.
+            if (result == PausableScheduler.SCHEDULE_PUT_OFF) {
+                record(FlowRecorder.ACTION_REMOVE, what);
+            }
+            recordSend(recorder, FlowRecorder.ACTION_SEND, what, uptimeMillis, NO_DEADLINE,
+                    PRIORITY_NORMAL, null, null);
+        }
+
+        final StatsRecorder stats = this.stats;
+        if (result == PausableScheduler.SCHEDULE_SENT && stats != null) {
+            stats.onSend(1, isPause);
+        }
+        return true;
+    }
+
+    private int scheduleOnHost(final int what, final long uptimeMillis, final boolean putOff) {
+        list.lock(what);
+        try {
+            if (isDead) {
+                return PausableScheduler.SCHEDULE_REFUSED;
+            }
+
+            final boolean pending = list.first(what) != null;
+            if (pending && !putOff) {
+                return PausableScheduler.SCHEDULE_KEPT;
+            }
+
+            if (pending) {
+                list.removeAll(what);
+                host.removeMessages(what);
+            }
+
+            final M msg = type.obtain(what);
+            if (!sendMessageLocked(msg, uptimeMillis, false, isPause || list.isPaused(msg),
+                    NO_DEADLINE)) {
+                return PausableScheduler.SCHEDULE_REFUSED;
+            }
+            return pending ? PausableScheduler.SCHEDULE_PUT_OFF : PausableScheduler.SCHEDULE_SENT;
+        } finally {
+            list.unlock(what);
+        }
+    }
+
+    /**
+     * The same as {@code Handler#sendMessageAtFrontOfQueue(Message)}.
+     */
+    public boolean sendMessageAtFrontOfQueue(M msg) {
+        return dispatchSendMessage(msg, 0, true, PRIORITY_NORMAL, NO_DEADLINE);
+    }
+
+    /**
+     * The same as {@code Handler#post(Runnable)}.
+     */
+    public boolean post(Runnable r) {
+        return sendMessageDelayed(type.obtain(r), 0);
+    }
+
+    /**
+     * The same as {@code Handler#postDelayed(Runnable, long)}.
+     */
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        return sendMessageDelayed(type.obtain(r), delayMillis);
+    }
+
+    /**
+     * The same as {@code Handler#postAtTime(Runnable, long)}.
+     */
+    public boolean postAtTime(Runnable r, long uptimeMillis) {
+        return sendMessageAtTime(type.obtain(r), uptimeMillis);
+    }
+
+    /**
+     * The same as {@code Handler#postAtTime(Runnable, Object, long)}: the token can be paused by
+     * {@link #pauseCallbacksAndMessages(Object)} and removed by
+     * {@link #removeCallbacks(Runnable, Object)} or {@link #removeCallbacksAndMessages(Object)}.
+     */
+    public boolean postAtTime(Runnable r, Object token, long uptimeMillis) {
+        return sendMessageAtTime(type.obtain(r, token), uptimeMillis);
+    }
+
+    /**
+     * The same as {@code Handler#postAtFrontOfQueue(Runnable)}, it goes back to the front on
+     * resume as well.
+     */
+    public boolean postAtFrontOfQueue(Runnable r) {
+        return sendMessageAtFrontOfQueue(type.obtain(r));
+    }
+
+    /**
+     * The same as {@code Handler#runWithScissors(Runnable, long)}: run the task synchronously,
+     * right away on the thread messages are delivered, otherwise post it and wait until it's
+     * done. While paused, the task is held and waited for as well.
+     * <p/>
+     * On the timeout the task is removed, so it isn't run later unless it's being run already.
+     * Never call it from a message of this handler delivered on a dispatcher other than the
+     * Looper, which may not deliver the task while waiting.
+     *
+     * @param timeout the max time to wait in milliseconds, 0 to wait forever.
+     * @return whether the task is run.
+     */
+    public boolean runWithScissors(final Runnable r, final long timeout) {
+        if (r == null) {
+            throw new IllegalArgumentException("runnable must not be null");
+        }
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must be non-negative");
+        }
+
+        if (isDeliveryThread()) {
+            r.run();
+            return true;
+        }
+
+        return new BlockingRunnable(r).postAndWait(this, timeout);
+    }
+
+    private static final class BlockingRunnable implements Runnable {
+        private final Runnable task;
+        private boolean done;
+
+        BlockingRunnable(final Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        boolean postAndWait(final PausableHandler<?> handler, final long timeout) {
+            if (!handler.post(this) || !await(timeout)) {
+                // not run yet, so never run it later.
+                handler.removeCallbacks(this);
+                synchronized (this) {
+                    return done;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return whether the task is done in time.
+         */
+        private synchronized boolean await(final long timeout) {
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            boolean interrupted = false;
+            while (!done) {
+                try {
+                    if (timeout == 0) {
+                        wait();
+                        continue;
+                    }
+
+                    final long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                } catch (InterruptedException e) {
+                    // the same as the Handler, keep waiting, but the interrupt is kept.
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return done;
+        }
+    }
+
+    /**
+     * The same as {@code Handler#removeMessages(int)}.
+     */
+    public void removeMessages(int what) {
+        record(FlowRecorder.ACTION_REMOVE, what);
+        closeThrottleWindow(what);
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.remove(what);
+            return;
+        }
+
+        list.lock(what);
+        try {
+            list.removeAll(what);
+            host.removeMessages(what);
+        } finally {
+            list.unlock(what);
+        }
+    }
+
+    /**
+     * Remove the messages with {@code what} of the priority only. Only works in
+     * {@link #SCHEDULE_HANDLER_QUEUE} and {@link #SCHEDULE_TIMER_WHEEL}.
+     *
+     * @param priority {@link #PRIORITY_HIGH}, {@link #PRIORITY_NORMAL} or {@link #PRIORITY_LOW}.
+     */
+    public void removeMessages(int what, int priority) {
+        checkPriority(priority);
+        final PausableScheduler<M> scheduler = requireScheduler("removing messages of a priority");
+        record(FlowRecorder.ACTION_REMOVE, what, priority, null, null);
+        scheduler.remove(what, priority);
+    }
+
+    /**
+     * The same as {@code Handler#removeMessages(int, Object)}.
+     *
+     * @param obj the token({@link MessageType#token(Object)}) of the messages, null for any.
+     */
+    public void removeMessages(int what, Object obj) {
+        record(FlowRecorder.ACTION_REMOVE, what, FlowRecorder.NO_LANE, null, obj);
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.remove(what, obj);
+            return;
+        }
+
+        list.lock(what);
+        try {
+            list.removeAll(what, obj);
+            host.removeMessages(what, obj);
+        } finally {
+            list.unlock(what);
+        }
+    }
+
+    /**
+     * The same as {@code Handler#removeCallbacksAndMessages(Object)}: remove the messages and
+     * callbacks tagged with the token in one pass, such as all the ones of a page.
+     *
+     * @param token the token({@link MessageType#token(Object)}) of the messages and callbacks,
+     *              null for all of them, the same as {@link #cancelAllMessage()}.
+     */
+    public void removeCallbacksAndMessages(Object token) {
+        if (token == null) {
+            cancelAllMessage();
+            return;
+        }
+
+        record(FlowRecorder.ACTION_REMOVE_TOKEN, 0, FlowRecorder.NO_LANE, null, token);
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.removeByToken(token);
+            return;
+        }
+
+        list.lockAll();
+        try {
+            list.removeAllByToken(token);
+            host.removeCallbacksAndMessages(token);
+        } finally {
+            list.unlockAll();
+        }
+    }
+
+    /**
+     * Remove all the pending messages and callbacks which match, in one pass, including the ones
+     * held by pause.
+     * <p/>
+     * In {@link #SCHEDULE_HOST_QUEUE} the host only removes by the what or the callback, so the
+     * messages removed are taken out of the host queue once none with their what is left,
+     * otherwise they are dropped when the host takes them out.
+     *
+     * @return the count of messages removed.
+     */
+    public int removeIf(Predicate<M> predicate) {
+        final FlowRecorder recorder = this.recorder;
+        final Predicate<M> matcher = recorder == null ? predicate
+                : new RecordingPredicate(predicate, recorder);
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler != null) {
+            return scheduler.removeIf(matcher);
+        }
+
+        return list.removeIf(matcher, host);
+    }
+
+    /**
+     * records each message removed by {@link #removeIf(Predicate)}, as the predicate can't be
+     * replayed.
+     */
+    private final class RecordingPredicate implements Predicate<M> {
+        private final Predicate<M> predicate;
+        private final FlowRecorder recorder;
+
+        RecordingPredicate(final Predicate<M> predicate, final FlowRecorder recorder) {
+            this.predicate = predicate;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public boolean test(final M msg) {
+            if (!predicate.test(msg)) {
+                return false;
+            }
+
+            recorder.record(FlowRecorder.ACTION_REMOVE_ONE, type.what(msg), clock.uptimeMillis(),
+                    0, -1, FlowRecorder.NO_LANE, FlowRecorder.identityOf(type.callback(msg)),
+                    FlowRecorder.identityOf(type.token(msg)));
+            return true;
+        }
+    }
+
+    /**
+     * The same as {@code Handler#removeCallbacks(Runnable)}.
+     */
+    public void removeCallbacks(Runnable r) {
+        record(FlowRecorder.ACTION_REMOVE_CALLBACKS, 0, FlowRecorder.NO_LANE, r, null);
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.remove(r);
+            return;
+        }
+
+        list.lockAll();
+        try {
+            list.removeAll(r);
+            host.removeCallbacks(r);
+        } finally {
+            list.unlockAll();
+        }
+    }
+
+    /**
+     * The same as {@code Handler#removeCallbacks(Runnable, Object)}.
+     *
+     * @param token the token({@link MessageType#token(Object)}) of the callbacks, null for any.
+     */
+    public void removeCallbacks(Runnable r, Object token) {
+        record(FlowRecorder.ACTION_REMOVE_CALLBACKS, 0, FlowRecorder.NO_LANE, r, token);
+        final PausableScheduler<M> scheduler = this.scheduler;
+        if (scheduler != null) {
+            scheduler.remove(r, token);
+            return;
+        }
+
+        list.lockAll();
+        try {
+            list.removeAll(r, token);
+            host.removeCallbacks(r, token);
+        } finally {
+            list.unlockAll();
+        }
+    }
+
+    private final static String TAG = "MessageHandler";
+    public static boolean NEED_LOG = false;
+
+    /**
+     * The sink of logs, only used when {@link #NEED_LOG} is true.
+     *
+     * @see #setLogger(Logger)
+     */
+    public interface Logger {
+        void d(String tag, String msg);
+    }
+
+    // at FINE as the debug level of java.util.logging, hidden unless the level is lowered.
+    private final static Logger JVM_LOGGER = new Logger() {
+        @Override
+        public void d(String tag, String msg) {
+            java.util.logging.Logger.getLogger(tag).fine(msg);
+        }
+    };
+
+    // the sink of the platform, replaced by the one of Android on it.
+    private static volatile Logger defaultLogger = JVM_LOGGER;
+    private static volatile Logger logger = JVM_LOGGER;
+
+    /**
+     * @param logger route logs to it instead of the default one of the platform,
+     *               {@code java.util.logging} on the JVM and {@code android.util.Log} on Android,
+     *               {@code null} to restore the default one.
+     */
+    public static void setLogger(final Logger logger) {
+        PausableHandler.logger = logger == null ? defaultLogger : logger;
+    }
+
+    static synchronized void setDefaultLogger(final Logger logger) {
+        if (PausableHandler.logger == defaultLogger) {
+            PausableHandler.logger = logger;
+        }
+        defaultLogger = logger;
+    }
+
+    // Fixed arity, so nothing is boxed or allocated before NEED_LOG is checked. The call sites in
+    // the hot path are guarded by NEED_LOG too, in case of the arguments cost.
+
+    static void logD(final String msg) {
+        if (!NEED_LOG) {
+            return;
+        }
+        logger.d(TAG, msg);
+    }
+
+    static void logD(final String format, final int arg) {
+        if (!NEED_LOG) {
+            return;
+        }
+        logger.d(TAG, String.format(format, arg));
+    }
+
+    static void logD(final String format, final boolean arg1, final boolean arg2, final int arg3) {
+        if (!NEED_LOG) {
+            return;
+        }
+        logger.d(TAG, String.format(format, arg1, arg2, arg3));
+    }
+
+}
@@ -0,0 +1,993 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+
+import static cn.dreamtobe.messagehandler.PausableHandler.NEED_LOG;
+import static cn.dreamtobe.messagehandler.PausableHandler.logD;
+
+/**
+ * Keeps messages in handler-owned {@link PendingQueue}s keyed on virtual clocks which stop while
+ * paused, only one tick for the earliest message is scheduled on the {@link Dispatcher}. So
+ * {@link #pause()} and {@link #resume()} just record the time, no matter how many messages are
+ * pending.
+ * <p/>
+ * Messages are split into lanes by priority, each lane has its own queue and clock, so it can be
+ * paused on its own. The tick delivers the lane with the higher priority first, but a lane whose
+ * due messages have been overtaken {@link #STARVATION_LIMIT} times in a row is delivered first.
+ * <p/>
+ * The tick and the messages run on the dispatcher. With a parallelism more than 1, up to
+ * that many workers deliver the messages at the same time. While ordered by {@code what}, a
+ * message due while the one with the same {@code what} is being delivered is parked behind that
+ * one and handed over to its worker next, so the other {@code what}s aren't blocked.
+ * <p/>
+ * Thread safe: guarded by itself. The {@link MessageHolderList} is only touched while holding this
+ * lock, so the stripe locks are always taken after it.
+ *
+ * @param <M> the type of the messages.
+ */
+class PausableScheduler<M> implements Runnable, MessageHolderList.OnRemoveListener<M> {
+
+    private static final long NO_TICK = Long.MIN_VALUE;
+
+    // the results of schedule(int, long, boolean).
+    static final int SCHEDULE_REFUSED = 0;
+    static final int SCHEDULE_SENT = 1;
+    static final int SCHEDULE_KEPT = 2;
+    static final int SCHEDULE_PUT_OFF = 3;
+    private static final int STARVATION_LIMIT = 8;
+
+    private final MessageHolderList<M> list;
+    // index is the priority, from the highest.
+    private final Lane<M>[] lanes;
+    private final Dispatcher dispatcher;
+    private final Clock clock;
+    // delivers the messages.
+    private final PausableHandler<M> handler;
+
+    private final int parallelism;
+    private final boolean orderByWhat;
+    // the workers running.
+    private int active;
+    // the what being delivered, to the holders parked behind it in order, null if none.
+    private final IntArrayMap<Parked<M>> busyWhats;
+    private int parkedCount;
+
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            work();
+        }
+    };
+
+    private boolean paused;
+    private boolean dead;
+    // the real uptime of the tick scheduled.
+    private long tickAt = NO_TICK;
+
+    private long sequence;
+    private long frontSequence;
+
+    // the budget of each turn of the dispatcher, 0 for unlimited.
+    private int maxMessagesPerTurn;
+    private long maxMillisPerTurn;
+
+    // the token bucket, in 1/1000 of a message, 0 rate for unlimited.
+    private int messagesPerSecond;
+    private long bucketCapacity;
+    private long tokens;
+    private long tokensRefilledAt;
+    // the tick isn't put before this uptime, as no token is left till then.
+    private long throttledUntil;
+
+    private static class Lane<M> {
+        private final PendingQueue<M> queue;
+
+        // paused by the lane itself.
+        private boolean paused;
+        // the clock stops while the lane or the scheduler is paused.
+        private boolean stopped;
+        // the real uptime when stopped.
+        private long stoppedAt;
+        // the real time stopped in total, virtual time = real time - stoppedTotal.
+        private long stoppedTotal;
+        // the real uptime when started last.
+        private long startedAt = Long.MIN_VALUE;
+        // the count of messages of higher lanes delivered in a row while this lane has a due one.
+        private int overtaken;
+
+        Lane(final PendingQueue<M> queue) {
+            this.queue = queue;
+        }
+
+        void stop(final long now) {
+            if (!stopped) {
+                stopped = true;
+                stoppedAt = now;
+            }
+        }
+
+        void start(final long now) {
+            if (stopped) {
+                stoppedTotal += now - stoppedAt;
+                stopped = false;
+                startedAt = now;
+            }
+        }
+
+        long virtualTime(final long now) {
+            return (stopped ? stoppedAt : now) - stoppedTotal;
+        }
+
+        /**
+         * @return the virtual time of the real uptime, the time before the clock started last is
+         * taken as when it started, as how long it was stopped before isn't kept. So a message
+         * sent with the uptime taken before a pause isn't earlier than the ones sent before it.
+         */
+        long virtualTimeAt(final long uptimeMillis, final long now) {
+            if (uptimeMillis >= now) {
+                return virtualTime(now) + uptimeMillis - now;
+            }
+
+            return Math.max(Math.min(uptimeMillis, stopped ? stoppedAt : now), startedAt)
+                    - stoppedTotal;
+        }
+
+        boolean hasDue(final long now) {
+            return !stopped && queue.nextDueTime() <= virtualTime(now);
+        }
+    }
+
+    /**
+     * @param queues      the queue of each lane, from the highest priority.
+     * @param dispatcher  runs the tick and the workers.
+     * @param handler     delivers the messages.
+     * @param parallelism the max count of workers delivering at the same time.
+     * @param order       {@link PausableHandler#ORDER_NONE} or
+     *                    {@link PausableHandler#ORDER_BY_WHAT}.
+     */
+    @SuppressWarnings("unchecked")
+    PausableScheduler(final MessageHolderList<M> list, final PendingQueue<M>[] queues,
+                      final Dispatcher dispatcher, final Clock clock,
+                      final PausableHandler<M> handler, final int parallelism, final int order) {
+        this.list = list;
+        this.lanes = (Lane<M>[]) new Lane<?>[queues.length];
+        for (int i = 0; i < queues.length; i++) {
+            lanes[i] = new Lane<>(queues[i]);
+        }
+        this.dispatcher = dispatcher;
+        this.clock = clock;
+        this.handler = handler;
+        this.parallelism = parallelism;
+        this.orderByWhat = order == PausableHandler.ORDER_BY_WHAT;
+        this.busyWhats = orderByWhat ? new IntArrayMap<Parked<M>>() : null;
+        list.setOnRemoveListener(this);
+    }
+
+    /**
+     * @param deadline the real uptime after which the message is dropped instead of delivered.
+     */
+    synchronized boolean send(final M msg, final long uptimeMillis, final boolean atFront,
+                              final int lane, final long deadline) {
+        if (dead) {
+            return false;
+        }
+
+        final long now = clock.uptimeMillis();
+        addLocked(msg, uptimeMillis, atFront, lane, deadline, now);
+        scheduleTickLocked(now);
+        return true;
+    }
+
+    synchronized int send(final M[] msgs, final long[] uptimeMillis, final int lane) {
+        if (dead) {
+            return 0;
+        }
+
+        final long now = clock.uptimeMillis();
+        for (int i = 0; i < msgs.length; i++) {
+            addLocked(msgs[i], uptimeMillis[i], false, lane, PausableHandler.NO_DEADLINE, now);
+        }
+        scheduleTickLocked(now);
+        return msgs.length;
+    }
+
+    /**
+     * send the message with the what only, which is obtained when it's delivered, it mustn't be
+     * coalesced.
+     */
+    synchronized boolean sendWhatOnly(final int what, final long uptimeMillis, final int lane,
+                                      final long deadline) {
+        if (dead) {
+            return false;
+        }
+
+        final long now = clock.uptimeMillis();
+        addWhatOnlyLocked(what, uptimeMillis, lane, deadline, now);
+        scheduleTickLocked(now);
+        return true;
+    }
+
+    synchronized int sendWhatOnly(final int[] whats, final long[] uptimeMillis, final int lane) {
+        if (dead) {
+            return 0;
+        }
+
+        final long now = clock.uptimeMillis();
+        for (int i = 0; i < whats.length; i++) {
+            addWhatOnlyLocked(whats[i], uptimeMillis[i], lane, PausableHandler.NO_DEADLINE, now);
+        }
+        scheduleTickLocked(now);
+        return whats.length;
+    }
+
+    /**
+     * keep the pending message with the what, or put it off to the uptime in place, instead of
+     * sending another, send one with the what only if there isn't.
+     *
+     * @param putOff put the pending one off to the uptime, otherwise keep it as it is.
+     * @return {@link #SCHEDULE_REFUSED}, {@link #SCHEDULE_SENT}, {@link #SCHEDULE_KEPT} or
+     * {@link #SCHEDULE_PUT_OFF}.
+     */
+    synchronized int schedule(final int what, final long uptimeMillis, final boolean putOff) {
+        if (dead) {
+            return SCHEDULE_REFUSED;
+        }
+
+        final long now = clock.uptimeMillis();
+        final MessageHolder<M> holder;
+        list.lock(what);
+        try {
+            holder = list.first(what);
+            if (holder != null && !putOff) {
+                return SCHEDULE_KEPT;
+            }
+
+            if (holder != null) {
+                putOffLocked(holder, uptimeMillis, now);
+            }
+        } finally {
+            list.unlock(what);
+        }
+
+        final int result;
+        if (holder == null) {
+            addWhatOnlyLocked(what, uptimeMillis, PausableHandler.PRIORITY_NORMAL,
+                    PausableHandler.NO_DEADLINE, now);
+            result = SCHEDULE_SENT;
+        } else {
+            result = SCHEDULE_PUT_OFF;
+        }
+        scheduleTickLocked(now);
+        return result;
+    }
+
+    /**
+     * move the holder to the uptime, in its queue or held by the pause of its what or token.
+     */
+    private void putOffLocked(final MessageHolder<M> holder, final long uptimeMillis,
+                              final long now) {
+        holder.atFront = false;
+        if (holder.isStopped()) {
+            // the time left counts from the resume.
+            holder.hold(uptimeMillis - now);
+            return;
+        }
+
+        if (holder.parked) {
+            unparkLocked(holder);
+        } else {
+            lanes[holder.lane].queue.remove(holder);
+        }
+        enqueueLocked(holder, lanes[holder.lane].virtualTimeAt(uptimeMillis, now));
+    }
+
+    private void addWhatOnlyLocked(final int what, final long uptimeMillis, final int lane,
+                                   final long deadline, final long now) {
+        final MessageHolder<M> holder;
+        list.lock(what);
+        try {
+            holder = list.obtainWhatOnly(what, uptimeMillis);
+            holder.lane = lane;
+            holder.deadline = deadline;
+            list.add(holder);
+
+            if (list.isPaused(holder)) {
+                holder.hold(uptimeMillis - now);
+                return;
+            }
+        } finally {
+            list.unlock(what);
+        }
+
+        enqueueLocked(holder, lanes[lane].virtualTimeAt(uptimeMillis, now));
+    }
+
+    private void addLocked(final M msg, final long uptimeMillis, final boolean atFront,
+                           final int lane, final long deadline, final long now) {
+        final int what = list.type.what(msg);
+        final MessageHolder<M> holder;
+        list.lock(what);
+        try {
+            if (list.coalesce(msg)) {
+                return;
+            }
+
+            holder = list.obtain(msg, uptimeMillis);
+            // never put into the host queue.
+            holder.takeOver();
+            holder.lane = lane;
+            holder.atFront = atFront;
+            holder.deadline = deadline;
+            list.add(holder);
+
+            if (list.isPaused(msg)) {
+                // its what or token is paused on its own.
+                holder.hold(atFront ? 0 : uptimeMillis - now);
+                return;
+            }
+        } finally {
+            list.unlock(what);
+        }
+
+        enqueueLocked(holder, lanes[lane].virtualTimeAt(uptimeMillis, now));
+    }
+
+    /**
+     * @param due the virtual time to deliver, ignored for the one at the front of the queue.
+     */
+    private void enqueueLocked(final MessageHolder<M> holder, final long due) {
+        if (holder.atFront) {
+            // the later one is in front, the same as the Looper queue.
+            holder.due = Long.MIN_VALUE;
+            holder.sequence = --frontSequence;
+        } else {
+            holder.due = due;
+            holder.sequence = ++sequence;
+        }
+        lanes[holder.lane].queue.add(holder);
+    }
+
+    /**
+     * pause the {@code what} and take its holders out of the queues, with the time left.
+     * <p/>
+     * The pause is set under our lock too, so a message sent meanwhile is either held or taken
+     * out.
+     */
+    synchronized void hold(final int what) {
+        if (list.setPaused(what, true)) {
+            list.forEach(what, newHoldVisitor(clock.uptimeMillis()));
+        }
+    }
+
+    /**
+     * pause the token and take its holders out of the queues, with the time left.
+     */
+    synchronized void hold(final Object token) {
+        if (list.setPaused(token, true)) {
+            list.forEach(token, newHoldVisitor(clock.uptimeMillis()));
+        }
+    }
+
+    /**
+     * resume the {@code what} and put its holders held by {@link #hold(int)} back, unless they are
+     * still paused by their token.
+     * <p/>
+     * The pause is cleared under our lock too, so a message sent meanwhile can't overtake them.
+     *
+     * @return the count of messages dropped as only the latest one of the {@code what} is kept.
+     */
+    synchronized int release(final int what) {
+        if (!list.setPaused(what, false)) {
+            return 0;
+        }
+
+        // otherwise it's left to resume().
+        final int dropped = paused ? 0 : list.keepLatest(what);
+        final long now = clock.uptimeMillis();
+        list.forEach(what, newReleaseVisitor(now));
+        scheduleTickLocked(now);
+        return dropped;
+    }
+
+    /**
+     * resume the token and put its holders held by {@link #hold(Object)} back, unless they are
+     * still paused by their {@code what}.
+     */
+    synchronized void release(final Object token) {
+        if (!list.setPaused(token, false)) {
+            return;
+        }
+
+        final long now = clock.uptimeMillis();
+        list.forEach(token, newReleaseVisitor(now));
+        scheduleTickLocked(now);
+    }
+
+    private MessageHolderList.HolderVisitor<M> newHoldVisitor(final long now) {
+        return new MessageHolderList.HolderVisitor<M>() {
+            @Override
+            public void visit(MessageHolder<M> holder) {
+                if (holder.isStopped()) {
+                    return;
+                }
+
+                final Lane<M> lane = lanes[holder.lane];
+                if (holder.parked) {
+                    unparkLocked(holder);
+                } else {
+                    lane.queue.remove(holder);
+                }
+                holder.hold(holder.atFront ? 0 : holder.due - lane.virtualTime(now));
+            }
+        };
+    }
+
+    private MessageHolderList.HolderVisitor<M> newReleaseVisitor(final long now) {
+        return new MessageHolderList.HolderVisitor<M>() {
+            @Override
+            public void visit(MessageHolder<M> holder) {
+                if (holder.isStopped() && !list.isPaused(holder)) {
+                    enqueueLocked(holder,
+                            lanes[holder.lane].virtualTime(now) + holder.release());
+                }
+            }
+        };
+    }
+
+    /**
+     * @param maxMessages the max count of messages to deliver in one turn of the dispatcher, the
+     *                    rest are deferred to the next turn, 0 for unlimited.
+     * @param maxMillis   the max time to deliver messages in one turn of the dispatcher, 0 for
+     *                    unlimited.
+     */
+    synchronized void setTurnBudget(final int maxMessages, final long maxMillis) {
+        this.maxMessagesPerTurn = maxMessages;
+        this.maxMillisPerTurn = maxMillis;
+    }
+
+    /**
+     * @param messagesPerSecond the rate to deliver messages, 0 for unlimited.
+     * @param burst             the max count of messages delivered at once after idle.
+     */
+    synchronized void setRateLimit(final int messagesPerSecond, final int burst) {
+        this.messagesPerSecond = messagesPerSecond;
+        this.bucketCapacity = Math.max(1, burst) * 1000L;
+        this.tokens = bucketCapacity;
+        this.tokensRefilledAt = clock.uptimeMillis();
+        this.throttledUntil = 0;
+        scheduleTickLocked(tokensRefilledAt);
+    }
+
+    synchronized void pause() {
+        if (paused) {
+            return;
+        }
+
+        paused = true;
+        final long now = clock.uptimeMillis();
+        for (Lane<M> lane : lanes) {
+            lane.stop(now);
+        }
+        cancelTickLocked();
+
+        if (NEED_LOG) {
+            logD("pause %d", sizeLocked());
+        }
+    }
+
+    /**
+     * @return the count of messages dropped as only the latest one of their {@code what} is kept.
+     */
+    synchronized int resume() {
+        if (!paused) {
+            return 0;
+        }
+
+        paused = false;
+        // before any lane starts, so the dropped ones are never delivered.
+        final int dropped = list.keepLatest();
+        final long now = clock.uptimeMillis();
+        for (Lane<M> lane : lanes) {
+            if (!lane.paused) {
+                lane.start(now);
+            }
+        }
+        scheduleTickLocked(now);
+
+        if (NEED_LOG) {
+            logD("resume %d", sizeLocked());
+        }
+        return dropped;
+    }
+
+    synchronized void pause(final int lane) {
+        final Lane<M> l = lanes[lane];
+        if (l.paused) {
+            return;
+        }
+
+        l.paused = true;
+        final long now = clock.uptimeMillis();
+        l.stop(now);
+        // the tick may be for this lane.
+        cancelTickLocked();
+        scheduleTickLocked(now);
+    }
+
+    synchronized void resume(final int lane) {
+        final Lane<M> l = lanes[lane];
+        if (!l.paused) {
+            return;
+        }
+
+        l.paused = false;
+        final long now = clock.uptimeMillis();
+        if (!paused) {
+            l.start(now);
+        }
+        scheduleTickLocked(now);
+    }
+
+    synchronized boolean isPaused(final int lane) {
+        return lanes[lane].paused;
+    }
+
+    /**
+     * @return the count of messages removed.
+     */
+    synchronized int remove(final int what) {
+        final int count = list.removeAll(what);
+        scheduleTickLocked(clock.uptimeMillis());
+        return count;
+    }
+
+    /**
+     * @return the count of messages removed.
+     */
+    synchronized int remove(final int what, final int lane) {
+        final int count = list.removeAll(what, lane);
+        scheduleTickLocked(clock.uptimeMillis());
+        return count;
+    }
+
+    /**
+     * @param token the token of the messages, null for any.
+     * @return the count of messages removed.
+     */
+    synchronized int remove(final int what, final Object token) {
+        final int count = list.removeAll(what, token);
+        scheduleTickLocked(clock.uptimeMillis());
+        return count;
+    }
+
+    /**
+     * @return the count of messages and callbacks removed.
+     */
+    synchronized int removeByToken(final Object token) {
+        final int count = list.removeAllByToken(token);
+        scheduleTickLocked(clock.uptimeMillis());
+        return count;
+    }
+
+    /**
+     * @return the count of messages removed.
+     */
+    synchronized int removeIf(final PausableHandler.Predicate<M> predicate) {
+        final int count = list.removeIf(predicate);
+        scheduleTickLocked(clock.uptimeMillis());
+        return count;
+    }
+
+    /**
+     * @return the count of messages removed.
+     */
+    synchronized int remove(final Runnable callback) {
+        final int count = list.removeAll(callback);
+        scheduleTickLocked(clock.uptimeMillis());
+        return count;
+    }
+
+    /**
+     * @param token the token of the callbacks, null for any.
+     * @return the count of callbacks removed.
+     */
+    synchronized int remove(final Runnable callback, final Object token) {
+        final int count = list.removeAll(callback, token);
+        scheduleTickLocked(clock.uptimeMillis());
+        return count;
+    }
+
+    /**
+     * schedule the messages held by the pause of the group.
+     */
+    synchronized void wake() {
+        scheduleTickLocked(clock.uptimeMillis());
+    }
+
+    synchronized void clear() {
+        for (Lane<M> lane : lanes) {
+            lane.queue.clear();
+        }
+        list.clear();
+        cancelTickLocked();
+    }
+
+    synchronized void kill() {
+        dead = true;
+        clear();
+    }
+
+    synchronized int size() {
+        return sizeLocked();
+    }
+
+    private int sizeLocked() {
+        int size = parkedCount;
+        for (Lane<M> lane : lanes) {
+            size += lane.queue.size();
+        }
+        return size;
+    }
+
+    /**
+     * the tick: becomes a worker unless there are enough of them already, they will pick up the
+     * messages due.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (tickAt <= clock.uptimeMillis()) {
+                // otherwise it's a stale one already handed over when canceled.
+                tickAt = NO_TICK;
+            }
+            if (active >= parallelism) {
+                return;
+            }
+            active++;
+        }
+
+        work();
+    }
+
+    /**
+     * the worker: deliver all messages whose time is up, one by one without holding the lock, so
+     * {@link #pause()} or removing in {@code handleMessage} takes effect on the rest at once.
+     * Another worker is started while there are more messages due, up to the parallelism.
+     * <p/>
+     * Messages beyond the budget of this turn or the rate limit stay in the queue, for the next
+     * tick. Messages past their deadline are dropped instead, not counted in the budget.
+     */
+    private void work() {
+        final long turnStart = clock.uptimeMillis();
+        int delivered = 0;
+        // the what being delivered by this worker while ordered by what.
+        boolean busy = false;
+        int busyWhat = 0;
+        try {
+            for (; ; ) {
+                final M msg;
+                final long lateness;
+                final boolean expired;
+                handler.syncGroup();
+                synchronized (this) {
+                    final long now = clock.uptimeMillis();
+                    final boolean goOn = !paused && !dead && !handler.isHeld()
+                            && (maxMessagesPerTurn <= 0 || delivered < maxMessagesPerTurn)
+                            && (maxMillisPerTurn <= 0 || now - turnStart < maxMillisPerTurn)
+                            && acquireTokenLocked(now);
+
+                    MessageHolder<M> holder = null;
+                    if (busy) {
+                        // the next one with the same what is handed over to this worker.
+                        holder = goOn ? pollParkedLocked(busyWhat, now) : null;
+                        if (holder == null) {
+                            releaseLocked(busyWhat);
+                            busy = false;
+                        }
+                    }
+
+                    if (!goOn) {
+                        return;
+                    }
+
+                    if (holder == null) {
+                        holder = pollDueLocked(now);
+                        if (holder == null) {
+                            return;
+                        }
+                        if (orderByWhat) {
+                            busy = true;
+                            busyWhat = holder.what;
+                        }
+                    }
+
+                    if (active < parallelism && hasDueLocked(now)) {
+                        active++;
+                        dispatcher.schedule(worker, now);
+                    }
+
+                    expired = now > holder.deadline;
+                    if (messagesPerSecond > 0 && !expired) {
+                        tokens -= 1000;
+                    }
+
+                    lateness = holder.due == Long.MIN_VALUE ? StatsRecorder.NO_LATENESS
+                            : lanes[holder.lane].virtualTime(now) - holder.due;
+                    holder.materialize(list.type);
+                    msg = holder.takeMessage();
+                    list.remove(holder);
+                }
+
+                if (expired) {
+                    handler.expire(msg);
+                    continue;
+                }
+
+                handler.deliver(msg, lateness);
+                delivered++;
+            }
+        } finally {
+            // also when handleMessage throws.
+            synchronized (this) {
+                active--;
+                if (busy) {
+                    releaseLocked(busyWhat);
+                }
+                // once the budget is used up, the tick at now is behind the tasks already on the
+                // dispatcher, such as the messages in the Looper queue, so they get a turn first.
+                scheduleTickLocked(clock.uptimeMillis());
+            }
+        }
+    }
+
+    /**
+     * @return the holder due to deliver, whose what is marked busy while ordered by what, null if
+     * there isn't.
+     */
+    private MessageHolder<M> pollDueLocked(final long now) {
+        for (; ; ) {
+            final Lane<M> lane = pickLaneLocked(now);
+            if (lane == null) {
+                return null;
+            }
+
+            final MessageHolder<M> holder = lane.queue.pollDue(lane.virtualTime(now));
+            if (!orderByWhat) {
+                return holder;
+            }
+
+            final int index = busyWhats.indexOfKey(holder.what);
+            if (index < 0) {
+                busyWhats.put(holder.what, null);
+                return holder;
+            }
+
+            // wait for the one being delivered.
+            Parked<M> parked = busyWhats.valueAt(index);
+            if (parked == null) {
+                parked = new Parked<>();
+                busyWhats.put(holder.what, parked);
+            }
+            parked.add(holder);
+            holder.parked = true;
+            parkedCount++;
+        }
+    }
+
+    /**
+     * @return the next holder parked behind the what, null if there isn't or its lane is stopped.
+     */
+    private MessageHolder<M> pollParkedLocked(final int what, final long now) {
+        final Parked<M> parked = busyWhats.get(what);
+        final MessageHolder<M> holder = parked == null ? null : parked.head;
+        if (holder == null || lanes[holder.lane].stopped) {
+            return null;
+        }
+
+        parked.remove(holder);
+        holder.parked = false;
+        parkedCount--;
+        return holder;
+    }
+
+    /**
+     * the what isn't delivered anymore, put the holders parked behind it back where they were.
+     */
+    private void releaseLocked(final int what) {
+        final Parked<M> parked = busyWhats.get(what);
+        busyWhats.remove(what);
+        if (parked == null) {
+            return;
+        }
+
+        MessageHolder<M> holder;
+        while ((holder = parked.head) != null) {
+            parked.remove(holder);
+            holder.parked = false;
+            parkedCount--;
+            lanes[holder.lane].queue.restore(holder);
+        }
+    }
+
+    private void unparkLocked(final MessageHolder<M> holder) {
+        busyWhats.get(holder.what).remove(holder);
+        holder.parked = false;
+        parkedCount--;
+    }
+
+    /**
+     * The holders parked behind a what in order, linked by their queue links as they are out of
+     * the queue, so parking allocates nothing but this for each busy what.
+     */
+    private static final class Parked<M> {
+        MessageHolder<M> head;
+        MessageHolder<M> tail;
+
+        void add(final MessageHolder<M> holder) {
+            holder.queuePrev = tail;
+            holder.queueNext = null;
+            if (tail == null) {
+                head = holder;
+            } else {
+                tail.queueNext = holder;
+            }
+            tail = holder;
+        }
+
+        void remove(final MessageHolder<M> holder) {
+            final MessageHolder<M> prev = holder.queuePrev;
+            final MessageHolder<M> next = holder.queueNext;
+            if (prev == null) {
+                head = next;
+            } else {
+                prev.queueNext = next;
+            }
+            if (next == null) {
+                tail = prev;
+            } else {
+                next.queuePrev = prev;
+            }
+            // not in the buckets of the timer wheel.
+            holder.queuePrev = null;
+            holder.queueNext = null;
+        }
+    }
+
+    private boolean hasDueLocked(final long now) {
+        for (Lane<M> lane : lanes) {
+            if (lane.hasDue(now)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the lane to deliver from, null if no message is due.
+     */
+    private Lane<M> pickLaneLocked(final long now) {
+        Lane<M> picked = null;
+        // the starved one first, from the lowest.
+        for (int i = lanes.length - 1; i >= 0; i--) {
+            final Lane<M> lane = lanes[i];
+            if (lane.overtaken >= STARVATION_LIMIT && lane.hasDue(now)) {
+                picked = lane;
+                break;
+            }
+        }
+
+        if (picked == null) {
+            for (Lane<M> lane : lanes) {
+                if (lane.hasDue(now)) {
+                    picked = lane;
+                    break;
+                }
+            }
+        }
+
+        if (picked == null) {
+            return null;
+        }
+
+        picked.overtaken = 0;
+        boolean lower = false;
+        for (Lane<M> lane : lanes) {
+            if (lower && lane.hasDue(now)) {
+                lane.overtaken++;
+            }
+            lower |= lane == picked;
+        }
+        return picked;
+    }
+
+    /**
+     * refill the token bucket, and check whether a message can be delivered now, otherwise
+     * {@link #throttledUntil} is updated to the time there will be a token.
+     */
+    private boolean acquireTokenLocked(final long now) {
+        if (messagesPerSecond <= 0) {
+            return true;
+        }
+
+        if (now > tokensRefilledAt) {
+            tokens = Math.min(bucketCapacity,
+                    tokens + (now - tokensRefilledAt) * messagesPerSecond);
+            tokensRefilledAt = now;
+        }
+
+        if (tokens >= 1000) {
+            return true;
+        }
+
+        // ceil.
+        throttledUntil = now + (1000 - tokens + messagesPerSecond - 1) / messagesPerSecond;
+        return false;
+    }
+
+    @Override
+    public void onRemove(final MessageHolder<M> holder) {
+        // invoked by the list under our lock.
+        if (holder.parked) {
+            unparkLocked(holder);
+        } else {
+            lanes[holder.lane].queue.remove(holder);
+        }
+    }
+
+    private void cancelTickLocked() {
+        if (tickAt != NO_TICK) {
+            dispatcher.cancel(this);
+            tickAt = NO_TICK;
+        }
+    }
+
+    private void scheduleTickLocked(final long now) {
+        if (paused || dead || handler.isHeld()) {
+            // woken on the resume of the group or the request of the publisher.
+            return;
+        }
+
+        long at = Long.MAX_VALUE;
+        for (Lane<M> lane : lanes) {
+            if (lane.stopped) {
+                continue;
+            }
+
+            final long nextDueTime = lane.queue.nextDueTime();
+            if (nextDueTime != Long.MAX_VALUE) {
+                at = Math.min(at, Math.max(now, nextDueTime + lane.stoppedTotal));
+            }
+        }
+
+        if (at == Long.MAX_VALUE) {
+            cancelTickLocked();
+            return;
+        }
+
+        at = Math.max(at, throttledUntil);
+        if (tickAt != NO_TICK) {
+            if (tickAt <= at) {
+                // the tick scheduled comes earlier.
+                return;
+            }
+            dispatcher.cancel(this);
+        }
+
+        tickAt = at;
+        dispatcher.schedule(this, at);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * The handler-owned queue of the holders waiting for their time, ordered by
+ * {@link MessageHolder#due} on the virtual clock of {@link PausableScheduler}, and by
+ * {@link MessageHolder#sequence} for the same time.
+ * <p/>
+ * Not thread safe, guarded by {@link PausableScheduler}.
+ */
+interface PendingQueue<M> {
+
+    void add(MessageHolder<M> holder);
+
+    /**
+     * put the holder polled back where it was, with its due and sequence kept, so it's ahead of
+     * the ones added after it for the same time.
+     */
+    void restore(MessageHolder<M> holder);
+
+    /**
+     * nothing happens if the holder isn't in the queue.
+     */
+    void remove(MessageHolder<M> holder);
+
+    /**
+     * @param now the virtual time now.
+     * @return the holder whose time is up, {@code null} if there isn't.
+     */
+    MessageHolder<M> pollDue(long now);
+
+    /**
+     * @return the virtual time at which the next holder is due, {@link Long#MAX_VALUE} if empty.
+     */
+    long nextDueTime();
+
+    int size();
+
+    void clear();
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static cn.dreamtobe.messagehandler.MessageHandlerStats.LATENESS_BUCKET_COUNT;
+
+/**
+ * Collects the stats of a {@link PausableHandler} while enabled.
+ * <p/>
+ * Thread safe: counters are atomic, and a snapshot is taken without any lock, so its counters may
+ * be a little inconsistent with each other.
+ */
+final class StatsRecorder {
+
+    /**
+     * The lateness of a message which isn't scheduled at a time.
+     */
+    static final long NO_LATENESS = -1;
+
+    private static final long NOT_PAUSED = -1;
+
+    private final MessageHolderList<?> list;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong heldByPauseCount = new AtomicLong();
+    private final AtomicInteger maxPendingCount = new AtomicInteger();
+    private final AtomicLong maxLatenessMillis = new AtomicLong();
+    private final AtomicLongArray latenessHistogram = new AtomicLongArray(LATENESS_BUCKET_COUNT);
+
+    // guarded by the state lock of PausableHandler.
+    private volatile long pauseCount;
+    private volatile long pausedAt = NOT_PAUSED;
+    private volatile long pausedMillis;
+
+    StatsRecorder(final MessageHolderList<?> list) {
+        this.list = list;
+    }
+
+    void onSend(final int count, final boolean isPause) {
+        sentCount.addAndGet(count);
+        if (isPause) {
+            heldByPauseCount.addAndGet(count);
+        }
+
+        final int pending = list.size();
+        int max;
+        while (pending > (max = maxPendingCount.get())) {
+            if (maxPendingCount.compareAndSet(max, pending)) {
+                break;
+            }
+        }
+    }
+
+    void onDeliver(final long lateness) {
+        deliveredCount.incrementAndGet();
+        if (lateness == NO_LATENESS) {
+            return;
+        }
+
+        latenessHistogram.incrementAndGet(bucketOf(lateness));
+        long max;
+        while (lateness > (max = maxLatenessMillis.get())) {
+            if (maxLatenessMillis.compareAndSet(max, lateness)) {
+                break;
+            }
+        }
+    }
+
+    void onDrop(final int count) {
+        droppedCount.addAndGet(count);
+    }
+
+    void onExpire() {
+        expiredCount.incrementAndGet();
+    }
+
+    void onPause(final int held, final long now) {
+        pauseCount++;
+        pausedAt = now;
+        heldByPauseCount.addAndGet(held);
+    }
+
+    void onResume(final long now) {
+        final long pausedAt = this.pausedAt;
+        if (pausedAt != NOT_PAUSED) {
+            pausedMillis += now - pausedAt;
+            this.pausedAt = NOT_PAUSED;
+        }
+    }
+
+    MessageHandlerStats snapshot(final long now) {
+        final long pausedAt = this.pausedAt;
+        final long pausedMillis = this.pausedMillis
+                + (pausedAt == NOT_PAUSED ? 0 : now - pausedAt);
+
+        final long[] histogram = new long[LATENESS_BUCKET_COUNT];
+        for (int i = 0; i < LATENESS_BUCKET_COUNT; i++) {
+            histogram[i] = latenessHistogram.get(i);
+        }
+
+        return new MessageHandlerStats(sentCount.get(), deliveredCount.get(), droppedCount.get(),
+                expiredCount.get(), heldByPauseCount.get(), pauseCount, pausedMillis, list.size(),
+                maxPendingCount.get(), maxLatenessMillis.get(), histogram);
+    }
+
+    private static int bucketOf(final long lateness) {
+        // 0 for less than 1ms, i for [2^(i-1), 2^i)ms.
+        final int bucket = 64 - Long.numberOfLeadingZeros(Math.max(0, lateness));
+        return Math.min(bucket, LATENESS_BUCKET_COUNT - 1);
+    }
+}
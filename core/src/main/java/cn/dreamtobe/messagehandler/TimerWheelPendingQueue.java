@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+/**
+ * Hashed timer wheel: each bucket is a linked list of holders whose tick({@code due / tickMillis})
+ * maps to it, only the holders of the current round(the next {@code wheelSize} ticks) are in the
+ * buckets. Adding and removing them are O(1), which pays off when most of the pending messages are
+ * removed before due, such as timeouts. The holders of the further rounds wait in a heap and are
+ * moved into the buckets as their round comes, so each of them costs O(log n) once.
+ * <p/>
+ * The non-empty buckets are marked in a bitmap, so the earliest holder is found in a few words
+ * instead of visiting all buckets.
+ * <p/>
+ * Each bucket is kept in the order of due and sequence, the same as the heap, so the earliest
+ * holder is the head of the first non-empty bucket, and holders are delivered in the same order
+ * as the heap. As the holders are mostly added later than the ones before, they are linked from
+ * the tail in a few steps, even if a lot of them are in the same tick.
+ */
+class TimerWheelPendingQueue<M> implements PendingQueue<M> {
+
+    private final long tickMillis;
+    private final int mask;
+    private final MessageHolder<M>[] buckets;
+    // bit i is set if buckets[i] isn't empty.
+    private final long[] occupied;
+    // the holders of the further rounds.
+    private final HeapPendingQueue<M> overflow = new HeapPendingQueue<>();
+
+    // the bucket of this tick is the next one to expire, the ones before are all expired.
+    private long currentTick;
+    // the count of holders in the buckets.
+    private int size;
+
+    // the earliest one in the buckets.
+    private long earliestDue = Long.MAX_VALUE;
+    // the earliest one in the buckets is gone, have to find it again.
+    private boolean earliestDirty;
+
+    /**
+     * @param tickMillis the resolution of the wheel.
+     * @param wheelSize  the count of buckets, must be power of 2.
+     */
+    TimerWheelPendingQueue(final long tickMillis, final int wheelSize) {
+        if (tickMillis <= 0 || wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException(String.format("invalid tick(%d) or wheel size(%d)",
+                    tickMillis, wheelSize));
+        }
+
+        this.tickMillis = tickMillis;
+        this.mask = wheelSize - 1;
+        this.buckets = newBuckets(wheelSize);
+        this.occupied = new long[(wheelSize + 63) >>> 6];
+    }
+
+    @Override
+    public void add(MessageHolder<M> holder) {
+        if (isFurtherRound(holder)) {
+            overflow.add(holder);
+            return;
+        }
+
+        insert(holder);
+    }
+
+    @Override
+    public void restore(MessageHolder<M> holder) {
+        if (isFurtherRound(holder)) {
+            overflow.restore(holder);
+            return;
+        }
+
+        insert(holder);
+    }
+
+    @Override
+    public void remove(MessageHolder<M> holder) {
+        final int index = holder.queueIndex;
+        if (holder.queuePrev == null) {
+            // not in the buckets.
+            overflow.remove(holder);
+            return;
+        }
+        if (index < 0 || index >= buckets.length) {
+            return;
+        }
+
+        unlink(index, holder);
+    }
+
+    @Override
+    public MessageHolder<M> pollDue(long now) {
+        if (size() == 0) {
+            return null;
+        }
+
+        final long nowTick = tickOf(now);
+        if (nowTick - currentTick > mask) {
+            // skip the empty ticks after idle at once, but never the one of the earliest holder,
+            // otherwise it's delivered after the later ones in the buckets visited before.
+            currentTick = Math.max(currentTick, Math.min(nowTick - mask, tickOf(nextDueTime())));
+            cascade();
+        }
+
+        for (; ; ) {
+            final int index = (int) (currentTick & mask);
+            final MessageHolder<M> head = buckets[index];
+            // the rest of this bucket are later than the head.
+            if (head != null && head.due <= now && tickOf(head.due) <= currentTick) {
+                unlink(index, head);
+                return head;
+            }
+
+            if (currentTick >= nowTick) {
+                // the rest of this bucket is for the later time of this tick.
+                return null;
+            }
+            currentTick++;
+            cascade();
+        }
+    }
+
+    @Override
+    public long nextDueTime() {
+        if (size > 0 && earliestDirty) {
+            earliestDue = findEarliestDue();
+            earliestDirty = false;
+        }
+        return Math.min(size == 0 ? Long.MAX_VALUE : earliestDue, overflow.nextDueTime());
+    }
+
+    @Override
+    public int size() {
+        return size + overflow.size();
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < buckets.length; i++) {
+            MessageHolder<M> holder = buckets[i];
+            while (holder != null) {
+                final MessageHolder<M> next = holder.queueNext;
+                holder.queuePrev = null;
+                holder.queueNext = null;
+                holder.queueIndex = -1;
+                holder = next;
+            }
+            buckets[i] = null;
+        }
+        for (int i = 0; i < occupied.length; i++) {
+            occupied[i] = 0;
+        }
+        overflow.clear();
+        size = 0;
+        earliestDue = Long.MAX_VALUE;
+        earliestDirty = false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M> MessageHolder<M>[] newBuckets(final int wheelSize) {
+        return (MessageHolder<M>[]) new MessageHolder<?>[wheelSize];
+    }
+
+    /**
+     * The head of the first non-empty bucket from the current tick is the earliest one, as all
+     * the holders in the buckets are in this round.
+     */
+    private long findEarliestDue() {
+        return buckets[nextOccupied((int) (currentTick & mask))].due;
+    }
+
+    /**
+     * @return the index of the first non-empty bucket from {@code from} on, wrapping around, the
+     * buckets mustn't be all empty.
+     */
+    private int nextOccupied(final int from) {
+        int word = from >>> 6;
+        long bits = occupied[word] & (-1L << (from & 63));
+        while (bits == 0) {
+            word = word + 1 == occupied.length ? 0 : word + 1;
+            bits = occupied[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * move the holders whose round comes from the heap into the buckets, in the order of their due
+     * and sequence, which are before any added to the same tick later.
+     */
+    private void cascade() {
+        while (overflow.size() > 0 && tickOf(overflow.nextDueTime()) - currentTick <= mask) {
+            insert(overflow.pollDue(Long.MAX_VALUE));
+        }
+    }
+
+    /**
+     * link the holder in the order of due and sequence, looking from the tail of its bucket.
+     */
+    private void insert(final MessageHolder<M> holder) {
+        final int index = indexOf(holder);
+        final MessageHolder<M> head = buckets[index];
+        if (head == null || !isBefore(holder, head.queuePrev)) {
+            link(index, null, holder);
+            return;
+        }
+
+        // head.queuePrev is the tail, and the holder is before it.
+        MessageHolder<M> next = head.queuePrev;
+        while (next != head && isBefore(holder, next.queuePrev)) {
+            next = next.queuePrev;
+        }
+        link(index, next, holder);
+    }
+
+    private static <M> boolean isBefore(final MessageHolder<M> a, final MessageHolder<M> b) {
+        return a.due < b.due || (a.due == b.due && a.sequence < b.sequence);
+    }
+
+    private boolean isFurtherRound(final MessageHolder<M> holder) {
+        return holder.due != Long.MIN_VALUE && tickOf(holder.due) - currentTick > mask;
+    }
+
+    private int indexOf(final MessageHolder<M> holder) {
+        final long tick = Math.max(tickOf(holder.due), currentTick);
+        return (int) (tick & mask);
+    }
+
+    /**
+     * @param next the holder to link in front of, null for the tail.
+     */
+    private void link(final int index, final MessageHolder<M> next, final MessageHolder<M> holder) {
+        final MessageHolder<M> head = buckets[index];
+        if (head == null) {
+            holder.queuePrev = holder;
+            holder.queueNext = null;
+            buckets[index] = holder;
+            occupied[index >>> 6] |= 1L << (index & 63);
+        } else if (next == null) {
+            // head.queuePrev is the tail.
+            final MessageHolder<M> tail = head.queuePrev;
+            tail.queueNext = holder;
+            holder.queuePrev = tail;
+            holder.queueNext = null;
+            head.queuePrev = holder;
+        } else if (next == head) {
+            holder.queuePrev = head.queuePrev;
+            holder.queueNext = head;
+            head.queuePrev = holder;
+            buckets[index] = holder;
+        } else {
+            final MessageHolder<M> prev = next.queuePrev;
+            prev.queueNext = holder;
+            holder.queuePrev = prev;
+            holder.queueNext = next;
+            next.queuePrev = holder;
+        }
+        holder.queueIndex = index;
+
+        if (size++ == 0) {
+            earliestDue = holder.due;
+            earliestDirty = false;
+        } else if (!earliestDirty && holder.due < earliestDue) {
+            earliestDue = holder.due;
+        }
+    }
+
+    private void unlink(final int index, final MessageHolder<M> holder) {
+        final MessageHolder<M> head = buckets[index];
+        final MessageHolder<M> prev = holder.queuePrev;
+        final MessageHolder<M> next = holder.queueNext;
+
+        if (holder == head) {
+            if (next != null) {
+                // prev is the tail.
+                next.queuePrev = prev;
+            } else {
+                occupied[index >>> 6] &= ~(1L << (index & 63));
+            }
+            buckets[index] = next;
+        } else {
+            prev.queueNext = next;
+            if (next != null) {
+                next.queuePrev = prev;
+            } else {
+                // the holder is the tail.
+                head.queuePrev = prev;
+            }
+        }
+
+        holder.queuePrev = null;
+        holder.queueNext = null;
+        holder.queueIndex = -1;
+
+        size--;
+        if (holder.due <= earliestDue) {
+            earliestDirty = true;
+        }
+    }
+
+    private long tickOf(final long time) {
+        // floor for negative time too.
+        final long tick = time / tickMillis;
+        return (time % tickMillis != 0 && time < 0) ? tick - 1 : tick;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BatchSendTest {
+
+    @Test
+    public void sendMessagesAtTime_keepsTheOrderOfTimeThenOfTheBatch() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.sendEmptyMessageDelayed(9, 10);
+            final Envelope[] msgs = {
+                    Envelope.obtain(1), Envelope.obtain(2), Envelope.obtain(3), Envelope.obtain(4),
+            };
+            assertEquals(4, handler.sendMessagesAtTime(msgs, new long[]{20, 10, 10, 0}));
+            fixture.advance(20);
+
+            assertArrayEquals(new int[]{4, 9, 2, 3, 1}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void sendEmptyMessagesDelayed_keepsTheOrderOfTimeThenOfTheBatch() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            assertEquals(4, handler.sendEmptyMessagesDelayed(new int[]{1, 2, 3, 4},
+                    new long[]{20, 10, 10, 0}));
+            fixture.advance(20);
+
+            assertArrayEquals(new int[]{4, 2, 3, 1}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void batch_whilePaused_isHeldWithTheTimeLeft() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.pause();
+            handler.sendMessagesAtTime(new Envelope[]{Envelope.obtain(1), Envelope.obtain(2)},
+                    new long[]{0, 10});
+            handler.sendEmptyMessagesDelayed(new int[]{3, 4}, new long[]{0, 20});
+            fixture.advance(100);
+            assertEquals(0, fixture.takeWhats().length);
+
+            handler.resume();
+            fixture.runDue();
+            assertArrayEquals(new int[]{1, 3}, fixture.takeWhats());
+            fixture.advance(10);
+            assertArrayEquals(new int[]{2}, fixture.takeWhats());
+            fixture.advance(10);
+            assertArrayEquals(new int[]{4}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void batch_again_reusesTheHoldersReleased() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final Object token = new Object();
+
+            for (int round = 0; round < 5; round++) {
+                final Envelope[] msgs = new Envelope[8];
+                final long[] times = new long[8];
+                for (int i = 0; i < msgs.length; i++) {
+                    msgs[i] = Envelope.obtain(i, i % 2 == 0 ? token : null);
+                    times[i] = fixture.dispatcher.uptimeMillis() + i;
+                }
+                handler.sendMessagesAtTime(msgs, times);
+                handler.sendEmptyMessagesDelayed(new int[]{10, 11}, new long[]{0, 0});
+                // the holders of these are released for the next round.
+                handler.removeCallbacksAndMessages(token);
+                handler.removeMessages(11);
+                fixture.advance(10);
+
+                assertArrayEquals(new int[]{10, 1, 3, 5, 7}, fixture.takeWhats());
+            }
+        }
+    }
+
+    @Test
+    public void batch_onTheDead_isRefused() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.killSelf();
+            assertEquals(0, handler.sendMessagesAtTime(new Envelope[]{Envelope.obtain(1)},
+                    new long[]{0}));
+            assertEquals(0, handler.sendEmptyMessagesDelayed(new int[]{2}, new long[]{0}));
+            fixture.advance(10);
+
+            assertEquals(0, fixture.takeWhats().length);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sendMessagesAtTime_withTimesMismatched_isRefused() {
+        new HandlerFixture(PausableHandler.SCHEDULE_HANDLER_QUEUE).handler.sendMessagesAtTime(
+                new Envelope[]{Envelope.obtain(1)}, new long[0]);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CoalesceTest {
+
+    @Test
+    public void keepFirst_dropsTheLaterOnes() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            handler.setCoalescePolicy(1, PausableHandler.COALESCE_KEEP_FIRST);
+
+            handler.sendMessageDelayed(Envelope.obtain(1, 1, 0, null), 10);
+            handler.sendMessageDelayed(Envelope.obtain(1, 2, 0, null), 0);
+            handler.sendEmptyMessageDelayed(2, 5);
+            fixture.advance(10);
+
+            final List<Envelope> delivered = fixture.takeDelivered();
+            assertEquals(2, delivered.size());
+            assertEquals(2, delivered.get(0).what);
+            assertEquals(1, delivered.get(1).what);
+            assertEquals(1, delivered.get(1).arg1);
+        }
+    }
+
+    @Test
+    public void keepLast_replacesTheContentInPlace() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            handler.setCoalescePolicy(1, PausableHandler.COALESCE_KEEP_LAST);
+
+            handler.sendMessageDelayed(Envelope.obtain(1, 1, 0, null), 5);
+            handler.sendEmptyMessageDelayed(2, 10);
+            handler.sendMessageDelayed(Envelope.obtain(1, 2, 0, null), 20);
+            fixture.advance(20);
+
+            // the pending one keeps its time.
+            final List<Envelope> delivered = fixture.takeDelivered();
+            assertEquals(2, delivered.size());
+            assertEquals(1, delivered.get(0).what);
+            assertEquals(2, delivered.get(0).arg1);
+            assertEquals(2, delivered.get(1).what);
+        }
+    }
+
+    @Test
+    public void coalesce_whilePaused_mergesIntoTheHeld() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            handler.setCoalescePolicy(1, new PausableHandler.Merger<Envelope>() {
+                @Override
+                public void merge(Envelope pending, Envelope incoming) {
+                    pending.arg1 += incoming.arg1;
+                }
+            });
+
+            handler.pause();
+            for (int i = 1; i <= 4; i++) {
+                handler.sendMessage(Envelope.obtain(1, i, 0, null));
+            }
+            fixture.runDue();
+            handler.resume();
+            fixture.runDue();
+
+            final List<Envelope> delivered = fixture.takeDelivered();
+            assertEquals(1, delivered.size());
+            assertEquals(10, delivered.get(0).arg1);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DebounceThrottleTest {
+
+    @Test
+    public void debounce_deliversOnceAfterTheLastCall() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            for (int i = 0; i < 5; i++) {
+                handler.debounce(1, 10);
+                fixture.advance(5);
+            }
+            assertEquals(0, fixture.takeWhats().length);
+
+            fixture.advance(5);
+            assertArrayEquals(new int[]{1}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void throttleLast_deliversOncePerWindow() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            for (int i = 0; i < 30; i++) {
+                handler.throttleLast(1, 10);
+                fixture.advance(1);
+            }
+            fixture.advance(10);
+
+            assertArrayEquals(new int[]{1, 1, 1}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void throttleFirst_dropsTheCallsWithinTheWindow() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            assertTrue(handler.throttleFirst(1, 10));
+            fixture.advance(5);
+            assertFalse(handler.throttleFirst(1, 10));
+            fixture.advance(5);
+            assertTrue(handler.throttleFirst(1, 10));
+            fixture.runDue();
+
+            assertArrayEquals(new int[]{1, 1}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void throttleFirst_windowClosedByRemoveAndCancel() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            assertTrue(handler.throttleFirst(1, 10));
+            assertTrue(handler.throttleFirst(2, 10));
+            handler.removeMessages(1);
+            assertTrue(handler.throttleFirst(1, 10));
+            assertFalse(handler.throttleFirst(2, 10));
+
+            handler.cancelAllMessage();
+            assertTrue(handler.throttleFirst(2, 10));
+            fixture.runDue();
+
+            assertArrayEquals(new int[]{2}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void debounce_whilePaused_countsTheWindowFromResume() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.pause();
+            handler.debounce(1, 10);
+            fixture.advance(20);
+            handler.resume();
+            fixture.advance(9);
+            assertEquals(0, fixture.takeWhats().length);
+
+            fixture.advance(1);
+            assertArrayEquals(new int[]{1}, fixture.takeWhats());
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class DispatchLimitTest {
+
+    @Test
+    public void turnBudget_ofMessages_yieldsToTheTasksQueued() {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final List<Integer> seenByTask = new ArrayList<>();
+            handler.setTurnBudget(2, 0);
+
+            for (int i = 0; i < 5; i++) {
+                handler.sendEmptyMessage(i);
+            }
+            fixture.dispatcher.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    seenByTask.add(fixture.takeWhats().length);
+                }
+            }, 0);
+            fixture.runDue();
+
+            // the task queued behind the first turn runs before the rest.
+            assertEquals(1, seenByTask.size());
+            assertEquals(2, (int) seenByTask.get(0));
+            assertArrayEquals(new int[]{2, 3, 4}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void turnBudget_ofMillis_defersTheRestToTheNextTurn() {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            final ManualDispatcher dispatcher = new ManualDispatcher();
+            final SlowClock clock = new SlowClock(dispatcher);
+            final List<Integer> whats = new ArrayList<>();
+            final PausableHandler<Envelope> handler = new PausableHandler<>(Envelope.TYPE, clock,
+                    dispatcher, new PausableHandler.Callback<Envelope>() {
+                        @Override
+                        public boolean handleMessage(Envelope msg) {
+                            whats.add(msg.what);
+                            // each message takes 3ms.
+                            clock.skew += 3;
+                            return true;
+                        }
+                    });
+            handler.setScheduleMode(mode);
+            handler.setTurnBudget(0, 5);
+
+            for (int i = 0; i < 5; i++) {
+                handler.sendEmptyMessage(i);
+            }
+            dispatcher.runDue();
+            assertEquals(2, whats.size());
+
+            // the next turn is scheduled at 6, when the budget was used up.
+            dispatcher.advance(5);
+            assertEquals(2, whats.size());
+            dispatcher.advance(1);
+            assertEquals(4, whats.size());
+            dispatcher.runAll();
+            assertEquals(5, whats.size());
+        }
+    }
+
+    @Test
+    public void rateLimit_deliversTheBurstThenOnePerToken() {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            // a token every 10ms.
+            handler.setRateLimit(100, 2);
+
+            for (int i = 0; i < 5; i++) {
+                handler.sendEmptyMessage(i);
+            }
+            fixture.runDue();
+            assertArrayEquals(new int[]{0, 1}, fixture.takeWhats());
+
+            fixture.advance(9);
+            assertEquals(0, fixture.takeWhats().length);
+            fixture.advance(1);
+            assertArrayEquals(new int[]{2}, fixture.takeWhats());
+            fixture.advance(20);
+            assertArrayEquals(new int[]{3, 4}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void rateLimit_afterIdle_refillsUpToTheBurst() {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            handler.setRateLimit(100, 2);
+
+            handler.pause();
+            fixture.advance(1000);
+            for (int i = 0; i < 5; i++) {
+                handler.sendEmptyMessage(i);
+            }
+            handler.resume();
+            fixture.runDue();
+
+            assertArrayEquals(new int[]{0, 1}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void rateLimit_isSharedByTheLanes_higherFirst() {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            handler.setRateLimit(100, 1);
+
+            handler.sendEmptyMessageDelayed(1, 0, PausableHandler.PRIORITY_LOW);
+            handler.sendEmptyMessage(2);
+            handler.sendEmptyMessageDelayed(3, 0, PausableHandler.PRIORITY_HIGH);
+            fixture.runDue();
+            assertArrayEquals(new int[]{3}, fixture.takeWhats());
+
+            fixture.advance(10);
+            assertArrayEquals(new int[]{2}, fixture.takeWhats());
+            fixture.advance(10);
+            assertArrayEquals(new int[]{1}, fixture.takeWhats());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void turnBudget_onHostQueue_isRefused() {
+        new HandlerFixture(PausableHandler.SCHEDULE_HOST_QUEUE).handler.setTurnBudget(1, 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rateLimit_onHostQueue_isRefused() {
+        new HandlerFixture(PausableHandler.SCHEDULE_HOST_QUEUE).handler.setRateLimit(1, 1);
+    }
+
+    /**
+     * the time of the dispatcher, plus the time taken by the messages delivered.
+     */
+    private static class SlowClock implements Clock {
+        private final ManualDispatcher dispatcher;
+        long skew;
+
+        SlowClock(ManualDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return dispatcher.uptimeMillis() + skew;
+        }
+    }
+}
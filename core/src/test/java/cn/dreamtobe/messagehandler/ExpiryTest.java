@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ExpiryTest {
+
+    @Test
+    public void ttl_goesOnWhilePaused() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final List<Integer> expired = new ArrayList<>();
+            handler.setOnExpiredListener(new PausableHandler.OnExpiredListener<Envelope>() {
+                @Override
+                public void onExpired(Envelope msg) {
+                    expired.add(msg.what);
+                }
+            });
+
+            handler.sendMessageWithTtl(Envelope.obtain(1), 10, 30);
+            handler.sendMessageWithTtl(Envelope.obtain(2), 10, 100);
+            handler.pause();
+            fixture.advance(50);
+            handler.resume();
+            fixture.advance(20);
+
+            // the time left of 2 is kept, while the deadline of 1 passed on pause.
+            assertArrayEquals(new int[]{2}, fixture.takeWhats());
+            assertEquals(1, expired.size());
+            assertEquals(1, (int) expired.get(0));
+        }
+    }
+
+    @Test
+    public void ttl_notReached_isDelivered() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            handler.setStatsEnabled(true);
+
+            handler.sendEmptyMessageWithTtl(1, 10, 20);
+            fixture.advance(10);
+
+            assertArrayEquals(new int[]{1}, fixture.takeWhats());
+            assertEquals(0, handler.getStats().getExpiredCount());
+        }
+    }
+
+    @Test
+    public void resumeKeepLatest_dropsTheStaleOnes() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            handler.setResumePolicy(1, PausableHandler.RESUME_KEEP_LATEST);
+
+            handler.pause();
+            for (int i = 1; i <= 3; i++) {
+                handler.sendMessage(Envelope.obtain(1, i, 0, null));
+                handler.sendEmptyMessage(2);
+            }
+            handler.resume();
+            fixture.runDue();
+
+            final List<Envelope> delivered = fixture.takeDelivered();
+            assertEquals(4, delivered.size());
+            int latest = 0;
+            int others = 0;
+            for (Envelope msg : delivered) {
+                if (msg.what == 1) {
+                    latest = msg.arg1;
+                } else {
+                    others++;
+                }
+            }
+            assertEquals(3, latest);
+            assertEquals(3, others);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlowRecorderTest {
+
+    @Test
+    public void record_fromThreads_keepsEachEventWhole() throws InterruptedException {
+        final int threads = 4;
+        final int events = 10000;
+        final FlowRecorder recorder = new FlowRecorder(threads * events);
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] recorders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            recorders[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < events; i++) {
+                        // each field of the event tells the thread, so a torn one is seen.
+                        recorder.record(FlowRecorder.ACTION_SEND, thread, thread, thread, thread,
+                                thread, thread, thread);
+                    }
+                }
+            };
+            recorders[t].start();
+        }
+        start.countDown();
+        for (Thread thread : recorders) {
+            thread.join();
+        }
+
+        assertEquals(threads * events, recorder.size());
+        final int[] counts = new int[threads];
+        for (int i = 0; i < recorder.size(); i++) {
+            final int thread = recorder.getWhat(i);
+            assertTrue(recorder.getUptimeMillis(i) == thread && recorder.getDelay(i) == thread
+                    && recorder.getTtl(i) == thread && recorder.getLane(i) == thread
+                    && recorder.getCallback(i) == thread && recorder.getToken(i) == thread);
+            counts[thread]++;
+        }
+        for (int count : counts) {
+            assertEquals(events, count);
+        }
+    }
+
+    @Test
+    public void record_beyondTheCapacity_keepsTheLatest() {
+        final FlowRecorder recorder = new FlowRecorder(4);
+        for (int i = 0; i < 10; i++) {
+            recorder.record(FlowRecorder.ACTION_SEND, i, i, 0);
+        }
+
+        assertEquals(4, recorder.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(6 + i, recorder.getWhat(i));
+        }
+    }
+}
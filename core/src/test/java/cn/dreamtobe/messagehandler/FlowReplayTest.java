@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FlowReplayTest {
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void replay_appliesEveryMutatingCall() throws IOException {
+        final HandlerFixture fixture = new HandlerFixture(PausableHandler.SCHEDULE_HANDLER_QUEUE);
+        final PausableHandler<Envelope> handler = fixture.handler;
+        final FlowRecorder recorder = new FlowRecorder(256);
+        handler.setFlowRecorder(recorder);
+
+        final Object token = new Object();
+        final Object other = new Object();
+        final Runnable callback = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        // removed by the token only.
+        handler.sendMessageDelayed(Envelope.obtain(1, token), 10);
+        handler.sendMessageDelayed(Envelope.obtain(1, other), 10);
+        handler.removeMessages(1, token);
+        // removed by the lane only.
+        handler.sendMessageDelayed(Envelope.obtain(2), 10, PausableHandler.PRIORITY_LOW);
+        handler.sendMessageDelayed(Envelope.obtain(2), 10, PausableHandler.PRIORITY_HIGH);
+        handler.removeMessages(2, PausableHandler.PRIORITY_LOW);
+        // removed by the callback and token.
+        handler.postDelayed(callback, 10);
+        handler.postDelayed(NOOP, 10);
+        handler.removeCallbacks(callback);
+        handler.sendMessageDelayed(Envelope.obtain(3, other), 10);
+        handler.sendMessageDelayed(Envelope.obtain(4, token), 10);
+        handler.removeCallbacksAndMessages(token);
+        // removed one by one.
+        for (int i = 0; i < 3; i++) {
+            handler.sendEmptyMessageDelayed(5 + i, 10);
+        }
+        handler.removeIf(new PausableHandler.Predicate<Envelope>() {
+            @Override
+            public boolean test(Envelope msg) {
+                return msg.what == 6;
+            }
+        });
+
+        // held by the pauses of a what, a token and a lane for a while, their time stops.
+        handler.pauseMessages(5);
+        handler.pauseCallbacksAndMessages(other);
+        handler.pausePriority(PausableHandler.PRIORITY_HIGH);
+        fixture.advance(20);
+        handler.resumePriority(PausableHandler.PRIORITY_HIGH);
+        fixture.advance(5);
+        handler.resumeCallbacksAndMessages(other);
+        fixture.advance(5);
+        handler.resumeMessages(5);
+        fixture.advance(15);
+
+        assertArrayEquals(new int[]{7, 2, 1, 3, 5}, fixture.takeWhats());
+        // the callback posted is recorded too.
+        final int[] delivered = deliveredWhats(recorder);
+        assertArrayEquals(new int[]{0, 7, 2, 1, 3, 5}, delivered);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.writeTo(out);
+        final FlowRecorder flow = FlowRecorder.readFrom(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertArrayEquals(delivered, deliveredWhats(flow));
+
+        final int[] modes = {
+                PausableHandler.SCHEDULE_HANDLER_QUEUE,
+                PausableHandler.SCHEDULE_TIMER_WHEEL,
+        };
+        for (int mode : modes) {
+            final FlowRecorder replayed = new FlowRecorder(256);
+            final MessageHandlerStats stats = FlowReplay.replay(flow, mode, replayed);
+            assertEquals(delivered.length, stats.getDeliveredCount());
+            assertArrayEquals(delivered, deliveredWhats(replayed));
+        }
+    }
+
+    @Test
+    public void replay_onTheHostQueue_isTheBaseline() {
+        final HandlerFixture fixture = new HandlerFixture(PausableHandler.SCHEDULE_HOST_QUEUE);
+        final PausableHandler<Envelope> handler = fixture.handler;
+        final FlowRecorder recorder = new FlowRecorder(256);
+        handler.setFlowRecorder(recorder);
+        final Object token = new Object();
+
+        handler.sendEmptyMessageDelayed(1, 30);
+        handler.sendMessageDelayed(Envelope.obtain(2, token), 10);
+        handler.sendEmptyMessageDelayed(3, 20);
+        handler.postDelayed(NOOP, 5);
+        handler.removeMessages(3);
+        fixture.advance(5);
+        handler.pauseCallbacksAndMessages(token);
+        handler.pause();
+        fixture.advance(50);
+        handler.resume();
+        fixture.advance(30);
+        handler.resumeCallbacksAndMessages(token);
+        fixture.advance(10);
+
+        final int[] delivered = deliveredWhats(recorder);
+        assertArrayEquals(new int[]{0, 1, 2}, delivered);
+
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final FlowRecorder replayed = new FlowRecorder(256);
+            final MessageHandlerStats stats = FlowReplay.replay(recorder, mode, replayed);
+            assertEquals(delivered.length, stats.getDeliveredCount());
+            assertArrayEquals(delivered, deliveredWhats(replayed));
+        }
+    }
+
+    @Test
+    public void replay_withLanes_onTheHostQueue_ignoresTheLanes() {
+        final HandlerFixture fixture = new HandlerFixture(PausableHandler.SCHEDULE_HANDLER_QUEUE);
+        final PausableHandler<Envelope> handler = fixture.handler;
+        final FlowRecorder recorder = new FlowRecorder(256);
+        handler.setFlowRecorder(recorder);
+
+        handler.sendEmptyMessageDelayed(1, 10, PausableHandler.PRIORITY_LOW);
+        handler.sendEmptyMessageDelayed(2, 10, PausableHandler.PRIORITY_HIGH);
+        handler.pausePriority(PausableHandler.PRIORITY_HIGH);
+        fixture.advance(20);
+        handler.resumePriority(PausableHandler.PRIORITY_HIGH);
+        fixture.advance(10);
+        assertArrayEquals(new int[]{1, 2}, fixture.takeWhats());
+
+        final FlowRecorder replayed = new FlowRecorder(256);
+        final MessageHandlerStats stats = FlowReplay.replay(recorder, FlowReplay.REPLAY_HOST_QUEUE,
+                replayed);
+        assertEquals(2, stats.getDeliveredCount());
+        // in the order of sending, as the pause of the lane is skipped.
+        assertArrayEquals(new int[]{1, 2}, deliveredWhats(replayed));
+    }
+
+    private static int[] deliveredWhats(final FlowRecorder flow) {
+        int count = 0;
+        final int[] whats = new int[flow.size()];
+        for (int i = 0; i < flow.size(); i++) {
+            if (flow.getAction(i) == FlowRecorder.ACTION_DELIVER) {
+                whats[count++] = flow.getWhat(i);
+            }
+        }
+
+        final int[] delivered = new int[count];
+        System.arraycopy(whats, 0, delivered, 0, count);
+        return delivered;
+    }
+}
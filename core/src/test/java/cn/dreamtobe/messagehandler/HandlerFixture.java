@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link PausableHandler} of {@link Envelope}s in one of the schedule modes, driven by a
+ * {@link ManualDispatcher} on the calling thread, which keeps a copy of each message delivered.
+ */
+class HandlerFixture {
+
+    static final int[] SCHEDULE_MODES = {
+            PausableHandler.SCHEDULE_HOST_QUEUE,
+            PausableHandler.SCHEDULE_HANDLER_QUEUE,
+            PausableHandler.SCHEDULE_TIMER_WHEEL,
+    };
+
+    // the modes with lanes.
+    static final int[] SCHEDULER_MODES = {
+            PausableHandler.SCHEDULE_HANDLER_QUEUE,
+            PausableHandler.SCHEDULE_TIMER_WHEEL,
+    };
+
+    final ManualDispatcher dispatcher = new ManualDispatcher();
+    final PausableHandler<Envelope> handler;
+    // only in SCHEDULE_HOST_QUEUE.
+    final ManualHostQueue host;
+
+    // guarded by itself.
+    private final List<Envelope> delivered = new ArrayList<>();
+
+    HandlerFixture(final int scheduleMode) {
+        if (scheduleMode == PausableHandler.SCHEDULE_HOST_QUEUE) {
+            host = new ManualHostQueue(dispatcher);
+            handler = new PausableHandler<Envelope>(Envelope.TYPE, dispatcher, host, dispatcher) {
+                @Override
+                public void handleMessage(Envelope msg) {
+                    onDeliver(msg);
+                }
+            };
+            host.attach(handler);
+        } else {
+            host = null;
+            handler = new PausableHandler<>(Envelope.TYPE, dispatcher, dispatcher,
+                    new PausableHandler.Callback<Envelope>() {
+                        @Override
+                        public boolean handleMessage(Envelope msg) {
+                            onDeliver(msg);
+                            return true;
+                        }
+                    });
+            handler.setScheduleMode(scheduleMode);
+        }
+    }
+
+    private void onDeliver(final Envelope msg) {
+        synchronized (delivered) {
+            delivered.add(Envelope.obtain(msg));
+        }
+    }
+
+    /**
+     * deliver the messages whose time is up, including the ones they send for now.
+     *
+     * @return the count of tasks run and messages taken out of the host queue.
+     */
+    int runDue() {
+        int count = 0;
+        for (; ; ) {
+            final int once = dispatcher.runDue() + (host == null ? 0 : host.runDue());
+            if (once == 0) {
+                return count;
+            }
+            count += once;
+        }
+    }
+
+    /**
+     * move the time forward and deliver the messages whose time is up on the way.
+     */
+    void advance(final long millis) {
+        final long until = dispatcher.uptimeMillis() + millis;
+        runDue();
+        while (dispatcher.uptimeMillis() < until) {
+            dispatcher.advance(1);
+            runDue();
+        }
+    }
+
+    /**
+     * @return the copies of the messages delivered so far, and forget them.
+     */
+    List<Envelope> takeDelivered() {
+        synchronized (delivered) {
+            final List<Envelope> taken = new ArrayList<>(delivered);
+            delivered.clear();
+            return taken;
+        }
+    }
+
+    /**
+     * @return the whats of the messages delivered so far, and forget them.
+     */
+    int[] takeWhats() {
+        final List<Envelope> taken = takeDelivered();
+        final int[] whats = new int[taken.size()];
+        for (int i = 0; i < whats.length; i++) {
+            whats[i] = taken.get(i).what;
+        }
+        return whats;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageHandlerGroupTest {
+
+    @Test
+    public void pause_holdsEachHandlerTillResumed() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final MessageHandlerGroup group = new MessageHandlerGroup();
+            final HandlerFixture first = new HandlerFixture(mode);
+            final HandlerFixture second = new HandlerFixture(mode);
+            first.handler.setGroup(group);
+            second.handler.setGroup(group);
+
+            group.pause();
+            first.handler.sendEmptyMessage(1);
+            first.handler.sendEmptyMessage(2);
+            second.handler.sendEmptyMessage(3);
+            first.runDue();
+            second.runDue();
+            assertEquals(0, first.takeWhats().length);
+            assertEquals(0, second.takeWhats().length);
+
+            group.resume();
+            first.runDue();
+            second.runDue();
+            assertArrayEquals(new int[]{1, 2}, first.takeWhats());
+            assertArrayEquals(new int[]{3}, second.takeWhats());
+        }
+    }
+
+    @Test
+    public void childGroup_isHeldByTheParent() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final MessageHandlerGroup parent = new MessageHandlerGroup();
+            final MessageHandlerGroup child = new MessageHandlerGroup(parent);
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            fixture.handler.setGroup(child);
+
+            parent.pause();
+            child.pause();
+            fixture.handler.sendEmptyMessage(1);
+            child.resume();
+            fixture.runDue();
+            assertTrue(child.isPaused());
+            assertEquals(0, fixture.takeWhats().length);
+
+            parent.resume();
+            fixture.runDue();
+            assertArrayEquals(new int[]{1}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void killSelf_killsEachHandler_andTheOnesJoiningLater() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final MessageHandlerGroup group = new MessageHandlerGroup();
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            fixture.handler.setGroup(group);
+
+            group.pause();
+            fixture.handler.sendEmptyMessage(1);
+            fixture.runDue();
+            group.killSelf();
+            fixture.runDue();
+            assertTrue(fixture.handler.isDead());
+            assertEquals(0, fixture.takeWhats().length);
+
+            final HandlerFixture later = new HandlerFixture(mode);
+            later.handler.setGroup(group);
+            assertFalse(later.handler.sendEmptyMessage(2));
+            later.runDue();
+            assertTrue(later.handler.isDead());
+            assertEquals(0, later.takeWhats().length);
+        }
+    }
+
+    @Test
+    public void cancelAllMessage_dropsThePending() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final MessageHandlerGroup group = new MessageHandlerGroup();
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            fixture.handler.setGroup(group);
+
+            fixture.handler.sendEmptyMessageDelayed(1, 10);
+            group.cancelAllMessage();
+            fixture.handler.sendEmptyMessageDelayed(2, 10);
+            fixture.advance(10);
+
+            assertArrayEquals(new int[]{2}, fixture.takeWhats());
+        }
+    }
+}
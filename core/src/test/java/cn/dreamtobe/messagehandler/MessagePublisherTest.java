@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessagePublisherTest {
+
+    private static class RecordingSubscriber implements MessagePublisher.Subscriber<Envelope> {
+        final List<Integer> whats = new ArrayList<>();
+        MessagePublisher.Subscription subscription;
+
+        @Override
+        public void onSubscribe(MessagePublisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Envelope msg) {
+            whats.add(msg.what);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        int[] takeWhats() {
+            final int[] taken = new int[whats.size()];
+            for (int i = 0; i < taken.length; i++) {
+                taken[i] = whats.get(i);
+            }
+            whats.clear();
+            return taken;
+        }
+    }
+
+    @Test
+    public void request_deliversTheHeldInTheOrderOfSending() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final MessagePublisher<Envelope> publisher = new MessagePublisher<>(fixture.handler,
+                    10);
+            final RecordingSubscriber subscriber = new RecordingSubscriber();
+            publisher.subscribe(subscriber);
+
+            fixture.handler.setStatsEnabled(true);
+            publisher.offer(1);
+            publisher.offer(2);
+            publisher.offer(3);
+            fixture.runDue();
+            assertEquals(0, subscriber.takeWhats().length);
+            assertFalse(fixture.handler.isPaused());
+
+            subscriber.subscription.request(1);
+            fixture.runDue();
+            assertArrayEquals(new int[]{1}, subscriber.takeWhats());
+
+            // sent while the others are held.
+            publisher.offer(4);
+            subscriber.subscription.request(10);
+            fixture.runDue();
+            assertArrayEquals(new int[]{2, 3, 4}, subscriber.takeWhats());
+
+            // held in place, neither sent nor delivered twice.
+            final MessageHandlerStats stats = fixture.handler.getStats();
+            assertEquals(4, stats.getSentCount());
+            assertEquals(4, stats.getDeliveredCount());
+        }
+    }
+
+    @Test
+    public void request_neverResumesThePauseOfTheApp() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final MessagePublisher<Envelope> publisher = new MessagePublisher<>(fixture.handler,
+                    10);
+            final RecordingSubscriber subscriber = new RecordingSubscriber();
+            publisher.subscribe(subscriber);
+
+            publisher.offer(1);
+            fixture.runDue();
+            fixture.handler.pause();
+            subscriber.subscription.request(1);
+            fixture.runDue();
+            assertTrue(fixture.handler.isPaused());
+            assertEquals(0, subscriber.takeWhats().length);
+
+            fixture.handler.resume();
+            fixture.runDue();
+            assertArrayEquals(new int[]{1}, subscriber.takeWhats());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrderByWhatTest {
+
+    private static final int WHAT_COUNT = 8;
+    private static final int MESSAGE_COUNT = 2000;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sameWhat_isDeliveredOneByOneInOrder() throws InterruptedException {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            sameWhatIsDeliveredOneByOneInOrder(mode);
+        }
+    }
+
+    private void sameWhatIsDeliveredOneByOneInOrder(final int mode) throws InterruptedException {
+        final AtomicInteger[] running = new AtomicInteger[WHAT_COUNT];
+        final int[] lastSequences = new int[WHAT_COUNT];
+        for (int i = 0; i < WHAT_COUNT; i++) {
+            running[i] = new AtomicInteger();
+            lastSequences[i] = -1;
+        }
+        final List<String> errors = new ArrayList<>();
+        final CountDownLatch delivered = new CountDownLatch(MESSAGE_COUNT);
+        final PausableHandler<Envelope> handler = new PausableHandler<>(Envelope.TYPE, executor,
+                4, PausableHandler.ORDER_BY_WHAT, new PausableHandler.Callback<Envelope>() {
+                    @Override
+                    public boolean handleMessage(Envelope msg) {
+                        if (running[msg.what].incrementAndGet() != 1) {
+                            error(errors, "what " + msg.what + " delivered at the same time");
+                        }
+                        // guarded by running.
+                        if (msg.arg1 <= lastSequences[msg.what]) {
+                            error(errors, "what " + msg.what + " out of order");
+                        }
+                        lastSequences[msg.what] = msg.arg1;
+                        running[msg.what].decrementAndGet();
+                        delivered.countDown();
+                        return true;
+                    }
+                });
+        handler.setScheduleMode(mode);
+
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            handler.sendMessage(Envelope.obtain(i % WHAT_COUNT, i, 0, null));
+        }
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(0, errors.size());
+    }
+
+    @Test
+    public void parked_canBeRemovedAndPaused() throws InterruptedException {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            parkedCanBeRemovedAndPaused(mode);
+        }
+    }
+
+    private void parkedCanBeRemovedAndPaused(final int mode) throws InterruptedException {
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final List<Integer> sequences = new ArrayList<>();
+        final PausableHandler<Envelope> handler = new PausableHandler<>(Envelope.TYPE, executor,
+                2, PausableHandler.ORDER_BY_WHAT, new PausableHandler.Callback<Envelope>() {
+                    @Override
+                    public boolean handleMessage(Envelope msg) {
+                        if (msg.arg1 == 0) {
+                            blocking.countDown();
+                            await(unblock);
+                        }
+                        synchronized (sequences) {
+                            sequences.add(msg.arg1);
+                            sequences.notifyAll();
+                        }
+                        return true;
+                    }
+                });
+        handler.setScheduleMode(mode);
+
+        final Object token = new Object();
+        handler.sendMessage(Envelope.obtain(1, 0, 0, null));
+        assertTrue(blocking.await(10, TimeUnit.SECONDS));
+        // parked behind the one being delivered by the other worker.
+        handler.sendMessage(Envelope.obtain(1, 1, 0, null));
+        handler.sendMessage(Envelope.obtain(1, 2, 0, token));
+        handler.sendMessage(Envelope.obtain(1, 3, 0, null));
+        handler.removeMessages(1, token);
+        handler.pause();
+        handler.sendMessage(Envelope.obtain(1, 4, 0, null));
+        unblock.countDown();
+        awaitSize(sequences, 1);
+        Thread.sleep(50);
+        synchronized (sequences) {
+            assertEquals(1, sequences.size());
+        }
+
+        handler.resume();
+        awaitSize(sequences, 4);
+        synchronized (sequences) {
+            assertEquals(4, sequences.size());
+            assertEquals(0, (int) sequences.get(0));
+            assertEquals(1, (int) sequences.get(1));
+            assertEquals(3, (int) sequences.get(2));
+            assertEquals(4, (int) sequences.get(3));
+        }
+    }
+
+    private static void error(final List<String> errors, final String error) {
+        synchronized (errors) {
+            errors.add(error);
+        }
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitSize(final List<Integer> sequences, final int size)
+            throws InterruptedException {
+        final long until = System.currentTimeMillis() + 10000;
+        synchronized (sequences) {
+            while (sequences.size() < size && System.currentTimeMillis() < until) {
+                sequences.wait(100);
+            }
+        }
+    }
+}
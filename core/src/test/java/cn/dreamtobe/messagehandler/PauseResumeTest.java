@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PauseResumeTest {
+
+    private static final int PRODUCER_COUNT = 8;
+    private static final int MESSAGE_COUNT = 20000;
+
+    @Test
+    public void resume_keepsTheOrderOfSending() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            // in different stripes.
+            handler.sendEmptyMessage(5);
+            handler.sendEmptyMessage(1);
+            handler.pause();
+            handler.sendEmptyMessage(3);
+            handler.sendEmptyMessage(2);
+            fixture.runDue();
+            assertEquals(0, fixture.takeWhats().length);
+
+            handler.resume();
+            fixture.runDue();
+            assertArrayEquals(new int[]{5, 1, 3, 2}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void resume_keepsTheTimeLeft() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.sendEmptyMessageDelayed(1, 100);
+            handler.sendEmptyMessageDelayed(2, 50);
+            fixture.advance(30);
+            handler.pause();
+            fixture.advance(1000);
+            assertEquals(0, fixture.takeWhats().length);
+
+            handler.resume();
+            fixture.advance(19);
+            assertEquals(0, fixture.takeWhats().length);
+            fixture.advance(1);
+            assertArrayEquals(new int[]{2}, fixture.takeWhats());
+            fixture.advance(50);
+            assertArrayEquals(new int[]{1}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void pauseAndResume_whileSending_deliverEachOnceInOrder() throws Exception {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            pauseAndResumeWhileSending(mode);
+        }
+    }
+
+    private void pauseAndResumeWhileSending(final int mode) throws Exception {
+        final HandlerFixture fixture = new HandlerFixture(mode);
+        final PausableHandler<Envelope> handler = fixture.handler;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch sent = new CountDownLatch(PRODUCER_COUNT);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int p = 0; p < PRODUCER_COUNT; p++) {
+            final int producer = p;
+            new Thread("producer-" + p) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < MESSAGE_COUNT; i++) {
+                            // spread over the stripes.
+                            handler.sendMessage(Envelope.obtain(i % 64, producer, i, null));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        sent.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread pauser = new Thread("pauser") {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    while (!done.get()) {
+                        handler.pause();
+                        Thread.yield();
+                        handler.resume();
+                        Thread.yield();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+        pauser.start();
+
+        final int[] next = new int[PRODUCER_COUNT];
+        int count = 0;
+        start.countDown();
+        try {
+            while (sent.getCount() > 0) {
+                fixture.runDue();
+                count += check(fixture.takeDelivered(), next);
+            }
+        } finally {
+            done.set(true);
+            pauser.join();
+        }
+        fixture.runDue();
+        count += check(fixture.takeDelivered(), next);
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals("mode " + mode, PRODUCER_COUNT * MESSAGE_COUNT, count);
+    }
+
+    /**
+     * @param next the next index expected of each producer.
+     * @return the count of messages checked.
+     */
+    private static int check(final List<Envelope> delivered, final int[] next) {
+        for (Envelope msg : delivered) {
+            assertEquals("producer " + msg.arg1, next[msg.arg1], msg.arg2);
+            assertEquals(msg.arg2 % 64, msg.what);
+            next[msg.arg1]++;
+        }
+        return delivered.size();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PostTest {
+
+    /**
+     * a task adding its name to the log when run.
+     */
+    private static Runnable task(final List<String> log, final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                synchronized (log) {
+                    log.add(name);
+                }
+            }
+        };
+    }
+
+    @Test
+    public void postAtFrontOfQueue_goesBeforeTheOthersDue() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final List<String> log = new ArrayList<>();
+
+            handler.post(task(log, "1"));
+            handler.postAtFrontOfQueue(task(log, "front"));
+            fixture.runDue();
+
+            assertEquals("[front, 1]", log.toString());
+        }
+    }
+
+    @Test
+    public void postAtFrontOfQueue_whilePaused_goesBackToTheFrontOnResume() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final List<String> log = new ArrayList<>();
+
+            handler.post(task(log, "1"));
+            handler.post(task(log, "2"));
+            handler.pause();
+            handler.postAtFrontOfQueue(task(log, "front"));
+            fixture.advance(10);
+            assertEquals(0, log.size());
+
+            handler.resume();
+            fixture.runDue();
+            assertEquals("[front, 1, 2]", log.toString());
+        }
+    }
+
+    @Test
+    public void postAtTime_withToken_isPausedAndRemovedByIt() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final List<String> log = new ArrayList<>();
+            final Object token = new Object();
+            final Object other = new Object();
+            final Runnable tokened = task(log, "token");
+
+            handler.postAtTime(tokened, token, 10);
+            handler.postAtTime(task(log, "other"), other, 10);
+            handler.postAtTime(task(log, "token2"), token, 20);
+            handler.pauseCallbacksAndMessages(token);
+            fixture.advance(20);
+            assertEquals("[other]", log.toString());
+
+            // only the one with the token, not the others of the same callback.
+            handler.removeCallbacks(tokened, token);
+            handler.resumeCallbacksAndMessages(token);
+            fixture.advance(20);
+            assertEquals("[other, token2]", log.toString());
+        }
+    }
+
+    @Test
+    public void runWithScissors_onTheDeliveryThread_runsAtOnce() {
+        final ManualDispatcher dispatcher = new ManualDispatcher();
+        final PausableHandler<Envelope> handler = new PausableHandler<Envelope>(Envelope.TYPE,
+                dispatcher, dispatcher, null) {
+            @Override
+            boolean isDeliveryThread() {
+                return true;
+            }
+        };
+        final List<String> log = new ArrayList<>();
+
+        // even while paused, the same as the Handler.
+        handler.pause();
+        assertTrue(handler.runWithScissors(task(log, "1"), 10));
+        assertEquals("[1]", log.toString());
+        assertEquals(0, dispatcher.size());
+    }
+
+    @Test
+    public void runWithScissors_fromAnotherThread_waitsForTheDelivery() throws Exception {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final List<String> log = new ArrayList<>();
+            final AtomicBoolean ran = new AtomicBoolean();
+
+            final Thread caller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ran.set(handler.runWithScissors(task(log, "1"), 0));
+                }
+            });
+            caller.start();
+            while (caller.isAlive()) {
+                fixture.runDue();
+                Thread.sleep(1);
+            }
+
+            assertTrue(ran.get());
+            assertEquals("[1]", log.toString());
+        }
+    }
+
+    @Test
+    public void runWithScissors_timeoutWhilePaused_neverRunsTheTask() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final List<String> log = new ArrayList<>();
+
+            handler.pause();
+            assertFalse(handler.runWithScissors(task(log, "1"), 20));
+
+            // removed on the timeout.
+            handler.resume();
+            fixture.advance(10);
+            assertEquals(0, log.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void runWithScissors_withNegativeTimeout_isRefused() {
+        new HandlerFixture(PausableHandler.SCHEDULE_HANDLER_QUEUE).handler.runWithScissors(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                }, -1);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityTest {
+
+    private static final int HIGH = 1;
+    private static final int LOW = 2;
+
+    @Test
+    public void higherLane_isDeliveredFirst() {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.sendEmptyMessageDelayed(LOW, 0, PausableHandler.PRIORITY_LOW);
+            handler.sendEmptyMessage(0);
+            handler.sendEmptyMessageDelayed(HIGH, 0, PausableHandler.PRIORITY_HIGH);
+            fixture.runDue();
+
+            assertArrayEquals(new int[]{HIGH, 0, LOW}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void lowerLane_overtakenForAWhile_isNotStarved() {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.sendEmptyMessageDelayed(LOW, 0, PausableHandler.PRIORITY_LOW);
+            for (int i = 0; i < 20; i++) {
+                handler.sendEmptyMessageDelayed(HIGH, 0, PausableHandler.PRIORITY_HIGH);
+            }
+            fixture.runDue();
+
+            final int[] whats = fixture.takeWhats();
+            assertEquals(21, whats.length);
+            int low = -1;
+            for (int i = 0; i < whats.length; i++) {
+                if (whats[i] == LOW) {
+                    low = i;
+                }
+            }
+            // overtaken 8 times in a row at most.
+            assertEquals(8, low);
+        }
+    }
+
+    @Test
+    public void pausedLane_isHeldAlone() {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.pausePriority(PausableHandler.PRIORITY_LOW);
+            handler.sendEmptyMessageDelayed(LOW, 0, PausableHandler.PRIORITY_LOW);
+            handler.sendEmptyMessageDelayed(HIGH, 0, PausableHandler.PRIORITY_HIGH);
+            fixture.runDue();
+            assertArrayEquals(new int[]{HIGH}, fixture.takeWhats());
+
+            handler.resumePriority(PausableHandler.PRIORITY_LOW);
+            fixture.runDue();
+            assertArrayEquals(new int[]{LOW}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void resumePriority_racingKillSelf_neverRestartsTheDead() throws Exception {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            for (int round = 0; round < 200; round++) {
+                final HandlerFixture fixture = new HandlerFixture(mode);
+                final PausableHandler<Envelope> handler = fixture.handler;
+                handler.pausePriority(PausableHandler.PRIORITY_LOW);
+                handler.sendEmptyMessageDelayed(LOW, 10, PausableHandler.PRIORITY_LOW);
+
+                final CountDownLatch start = new CountDownLatch(1);
+                final Thread resumer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        await(start);
+                        handler.resumePriority(PausableHandler.PRIORITY_LOW);
+                    }
+                });
+                final Thread killer = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        await(start);
+                        handler.killSelf();
+                    }
+                });
+                resumer.start();
+                killer.start();
+                start.countDown();
+                resumer.join();
+                killer.join();
+
+                // the lane may be resumed before the kill, but never after it.
+                assertTrue(handler.isDead());
+                fixture.advance(10);
+                assertEquals(0, fixture.takeWhats().length);
+                assertEquals(0, fixture.dispatcher.size());
+            }
+        }
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
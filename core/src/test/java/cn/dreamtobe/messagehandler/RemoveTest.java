@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RemoveTest {
+
+    private static final PausableHandler.Predicate<Envelope> ODD =
+            new PausableHandler.Predicate<Envelope>() {
+                @Override
+                public boolean test(Envelope msg) {
+                    return msg.what % 2 == 1;
+                }
+            };
+
+    @Test
+    public void removeIf_removesTheMatchesOnly() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            for (int i = 0; i < 6; i++) {
+                handler.sendEmptyMessageDelayed(i, 10);
+            }
+            assertEquals(3, handler.removeIf(ODD));
+            fixture.advance(10);
+
+            assertArrayEquals(new int[]{0, 2, 4}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void removeIf_whilePaused_removesTheHeld() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.pause();
+            for (int i = 0; i < 4; i++) {
+                handler.sendEmptyMessage(i);
+            }
+            assertEquals(2, handler.removeIf(ODD));
+            handler.resume();
+            fixture.runDue();
+
+            assertArrayEquals(new int[]{0, 2}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void removeIf_onHostQueue_takesTheWhatGoneOutAtOnce() {
+        final HandlerFixture fixture = new HandlerFixture(PausableHandler.SCHEDULE_HOST_QUEUE);
+        final PausableHandler<Envelope> handler = fixture.handler;
+
+        handler.sendMessageDelayed(Envelope.obtain(1, 1, 0, null), 10);
+        handler.sendMessageDelayed(Envelope.obtain(1, 2, 0, null), 10);
+        handler.sendEmptyMessageDelayed(2, 10);
+        assertEquals(3, fixture.host.size());
+
+        assertEquals(2, handler.removeIf(new PausableHandler.Predicate<Envelope>() {
+            @Override
+            public boolean test(Envelope msg) {
+                return msg.what == 1;
+            }
+        }));
+        assertEquals(1, fixture.host.size());
+
+        fixture.advance(10);
+        assertArrayEquals(new int[]{2}, fixture.takeWhats());
+    }
+
+    @Test
+    public void removeIf_onHostQueue_keepsTheOrderOfTheOthers() {
+        final HandlerFixture fixture = new HandlerFixture(PausableHandler.SCHEDULE_HOST_QUEUE);
+        final PausableHandler<Envelope> handler = fixture.handler;
+        final Object token = new Object();
+        final Runnable callback = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        // the others with the same what or callback are left in the host queue as they are, the
+        // ones removed are dropped when the host takes them out.
+        handler.sendMessageDelayed(Envelope.obtain(1, 1, 0, null), 10);
+        handler.sendMessageDelayed(Envelope.obtain(1, 2, 0, token), 10);
+        handler.sendEmptyMessageDelayed(2, 10);
+        handler.sendMessageDelayed(Envelope.obtain(1, 3, 0, null), 10);
+        handler.postDelayed(callback, 10);
+        handler.postAtTime(callback, token, 10);
+
+        assertEquals(2, handler.removeIf(new PausableHandler.Predicate<Envelope>() {
+            @Override
+            public boolean test(Envelope msg) {
+                return msg.arg1 == 1 || msg.obj == token && msg.getCallback() != null;
+            }
+        }));
+
+        fixture.advance(10);
+        final List<Envelope> delivered = fixture.takeDelivered();
+        assertEquals(3, delivered.size());
+        assertEquals(2, delivered.get(0).arg1);
+        assertEquals(2, delivered.get(1).what);
+        assertEquals(3, delivered.get(2).arg1);
+        assertEquals(0, fixture.host.size());
+    }
+
+    @Test
+    public void removeByToken_leavesTheOthers() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final Object token = new Object();
+
+            handler.sendMessageDelayed(Envelope.obtain(1, token), 10);
+            handler.sendMessageDelayed(Envelope.obtain(2), 10);
+            handler.sendMessageDelayed(Envelope.obtain(3, token), 10);
+            handler.removeCallbacksAndMessages(token);
+            fixture.advance(10);
+
+            assertArrayEquals(new int[]{2}, fixture.takeWhats());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SelectivePauseTest {
+
+    @Test
+    public void pauseMessages_holdsTheWhatOnly_inTheOrderOfSending() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.sendMessage(Envelope.obtain(1, 1, 0, null));
+            handler.sendEmptyMessage(2);
+            handler.sendMessage(Envelope.obtain(1, 2, 0, null));
+            handler.pauseMessages(1);
+            handler.sendMessage(Envelope.obtain(1, 3, 0, null));
+            handler.sendEmptyMessage(3);
+            fixture.advance(10);
+            assertArrayEquals(new int[]{2, 3}, fixture.takeWhats());
+
+            handler.resumeMessages(1);
+            fixture.runDue();
+            assertArgs(new int[]{1, 2, 3}, fixture.takeDelivered());
+        }
+    }
+
+    @Test
+    public void pauseMessages_keepsTheTimeLeft() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.sendEmptyMessageDelayed(1, 20);
+            handler.sendEmptyMessageDelayed(2, 20);
+            fixture.advance(5);
+            handler.pauseMessages(1);
+            fixture.advance(100);
+            assertArrayEquals(new int[]{2}, fixture.takeWhats());
+
+            handler.resumeMessages(1);
+            fixture.advance(14);
+            assertEquals(0, fixture.takeWhats().length);
+            fixture.advance(1);
+            assertArrayEquals(new int[]{1}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void pauseMessages_isKeptOverPauseAndResume() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+
+            handler.pauseMessages(1);
+            handler.pause();
+            handler.sendEmptyMessage(1);
+            handler.sendEmptyMessage(2);
+            handler.resume();
+            fixture.runDue();
+            assertArrayEquals(new int[]{2}, fixture.takeWhats());
+
+            handler.resumeMessages(1);
+            fixture.runDue();
+            assertArrayEquals(new int[]{1}, fixture.takeWhats());
+        }
+    }
+
+    @Test
+    public void pauseCallbacksAndMessages_holdsTheTokenOnly_inTheOrderOfSending() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final Object token = new Object();
+            final Object other = new Object();
+
+            handler.sendMessage(Envelope.obtain(1, 1, 0, token));
+            handler.sendMessage(Envelope.obtain(1, 2, 0, other));
+            handler.sendMessage(Envelope.obtain(2, 3, 0, token));
+            handler.pauseCallbacksAndMessages(token);
+            handler.sendMessage(Envelope.obtain(1, 4, 0, token));
+            handler.sendMessage(Envelope.obtain(2, 5, 0, null));
+            fixture.advance(10);
+            assertArgs(new int[]{2, 5}, fixture.takeDelivered());
+
+            handler.resumeCallbacksAndMessages(token);
+            fixture.runDue();
+            assertArgs(new int[]{1, 3, 4}, fixture.takeDelivered());
+        }
+    }
+
+    @Test
+    public void pauseCallbacksAndMessages_andPauseMessages_holdTillBothResumed() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            final Object token = new Object();
+
+            handler.pauseMessages(1);
+            handler.pauseCallbacksAndMessages(token);
+            handler.sendMessage(Envelope.obtain(1, token));
+            handler.sendMessage(Envelope.obtain(1));
+            handler.sendMessage(Envelope.obtain(2, token));
+
+            handler.resumeMessages(1);
+            fixture.runDue();
+            assertArrayEquals(new int[]{1}, fixture.takeWhats());
+
+            handler.resumeCallbacksAndMessages(token);
+            fixture.runDue();
+            assertArrayEquals(new int[]{1, 2}, fixture.takeWhats());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void pauseCallbacksAndMessages_withoutToken_isRefused() {
+        new HandlerFixture(PausableHandler.SCHEDULE_HOST_QUEUE).handler
+                .pauseCallbacksAndMessages(null);
+    }
+
+    private static void assertArgs(final int[] expected, final List<Envelope> delivered) {
+        final int[] args = new int[delivered.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = delivered.get(i).arg1;
+        }
+        assertArrayEquals(expected, args);
+    }
+}
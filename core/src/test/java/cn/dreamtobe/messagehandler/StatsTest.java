@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 Jacksgong(blog.dreamtobe.cn).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cn.dreamtobe.messagehandler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class StatsTest {
+
+    @Test
+    public void lateness_isBucketedByPowersOfTwo() {
+        for (int mode : HandlerFixture.SCHEDULER_MODES) {
+            final ManualDispatcher dispatcher = new ManualDispatcher();
+            // the time taken by the messages delivered, each takes its what in millis.
+            final long[] taken = new long[1];
+            final Clock clock = new Clock() {
+                @Override
+                public long uptimeMillis() {
+                    return dispatcher.uptimeMillis() + taken[0];
+                }
+            };
+            final PausableHandler<Envelope> handler = new PausableHandler<>(Envelope.TYPE, clock,
+                    dispatcher, new PausableHandler.Callback<Envelope>() {
+                        @Override
+                        public boolean handleMessage(Envelope msg) {
+                            taken[0] += msg.what;
+                            return true;
+                        }
+                    });
+            handler.setScheduleMode(mode);
+            handler.setStatsEnabled(true);
+
+            // late by 0, 1, 3, 1003 and 1033ms.
+            handler.sendEmptyMessagesDelayed(new int[]{1, 2, 1000, 30, 0},
+                    new long[]{0, 0, 0, 0, 0});
+            // not counted.
+            handler.sendMessageAtFrontOfQueue(Envelope.obtain(0));
+            dispatcher.runDue();
+
+            final MessageHandlerStats stats = handler.getStats();
+            assertEquals(6, stats.getDeliveredCount());
+            assertEquals(1033, stats.getMaxLatenessMillis());
+            final long[] histogram = new long[MessageHandlerStats.LATENESS_BUCKET_COUNT];
+            histogram[0] = 1;
+            histogram[1] = 1;
+            histogram[2] = 1;
+            histogram[10] = 1;
+            histogram[11] = 1;
+            assertArrayEquals(histogram, stats.getLatenessHistogram());
+        }
+    }
+
+    @Test
+    public void maxPendingCount_isTheHighestOnSending() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            handler.setStatsEnabled(true);
+
+            for (int i = 0; i < 3; i++) {
+                handler.sendEmptyMessage(i);
+            }
+            fixture.runDue();
+            handler.sendEmptyMessageDelayed(4, 10);
+
+            final MessageHandlerStats stats = handler.getStats();
+            assertEquals(4, stats.getSentCount());
+            assertEquals(3, stats.getDeliveredCount());
+            assertEquals(3, stats.getMaxPendingCount());
+            assertEquals(1, stats.getPendingCount());
+        }
+    }
+
+    @Test
+    public void pausedMillis_includesThePauseStillOpen() {
+        for (int mode : HandlerFixture.SCHEDULE_MODES) {
+            final HandlerFixture fixture = new HandlerFixture(mode);
+            final PausableHandler<Envelope> handler = fixture.handler;
+            handler.setStatsEnabled(true);
+
+            handler.sendEmptyMessageDelayed(1, 100);
+            handler.pause();
+            handler.sendEmptyMessage(2);
+            fixture.advance(30);
+            MessageHandlerStats stats = handler.getStats();
+            assertEquals(1, stats.getPauseCount());
+            assertEquals(30, stats.getPausedMillis());
+            assertEquals(2, stats.getHeldByPauseCount());
+
+            handler.resume();
+            fixture.advance(10);
+            handler.pause();
+            fixture.advance(5);
+            stats = handler.getStats();
+            assertEquals(2, stats.getPauseCount());
+            assertEquals(35, stats.getPausedMillis());
+
+            handler.resume();
+            fixture.advance(50);
+            assertEquals(35, handler.getStats().getPausedMillis());
+        }
+    }
+}
@@ -15,97 +15,277 @@
  */
 package cn.dreamtobe.messagehandler;
 
+import android.app.Activity;
+import android.app.Application;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.SystemClock;
 import android.util.Log;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
+import java.util.concurrent.Executor;
 
 /**
  * Created by Jacksgong on 1/13/16.
  * <p/>
- * support: pause, resume, stop
- * performance: use shallow clone instead of lock
+ * The {@link PausableHandler} of {@link Message}s on Android: the same pause, resume, cancel and
+ * kill for a {@link Looper}, all times are on {@link SystemClock#uptimeMillis()}.
  * why not extends Handler directly? so many methods relate pause and resume operate are final or hide.
  * <p/>
- * Tips: All method thread safe
+ * Schedule modes({@link #setScheduleMode(int)}):
+ * <ul>
+ * <li>{@link #SCHEDULE_LOOPER}: default, messages are put into the Looper queue, pause and resume
+ * remove and re-post each pending message.</li>
+ * <li>{@link #SCHEDULE_HANDLER_QUEUE}: messages are kept in the queue of this handler on a virtual
+ * clock which stops while paused, only one tick is in the Looper queue, pause and resume are
+ * O(1).</li>
+ * <li>{@link #SCHEDULE_TIMER_WHEEL}: the same as {@link #SCHEDULE_HANDLER_QUEUE}, but the queue is
+ * a hashed timer wheel.</li>
+ * </ul>
+ * <p/>
+ * Created with an {@link Executor}({@link #MessageHandler(Executor, int, int, Handler.Callback)}),
+ * messages are delivered on the threads of the executor instead of a Looper, with the same
+ * pause, resume, cancel and kill, optionally in order for the same {@code what}.
  */
-public class MessageHandler {
+public class MessageHandler extends PausableHandler<Message> {
 
-    private boolean isDead;
-    private volatile boolean isPause;
+    /**
+     * Put messages into the Looper queue, default.
+     */
+    public static final int SCHEDULE_LOOPER = SCHEDULE_HOST_QUEUE;
 
-    private final MessageHolderList list = new MessageHolderList();
+    /**
+     * @see #setCoalescePolicy(int, Merger)
+     */
+    public interface MessageMerger extends Merger<Message> {
+    }
 
-    private static class DispatchHandler extends Handler {
-        private final WeakReference<MessageHandler> messageHandlerWeakReference;
+    private final static Clock UPTIME_CLOCK = new Clock() {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
+    };
 
-        DispatchHandler(WeakReference<MessageHandler> messageHandlerWeakReference) {
-            this.messageHandlerWeakReference = messageHandlerWeakReference;
+    private final static Logger ANDROID_LOGGER = new Logger() {
+        @Override
+        public void d(String tag, String msg) {
+            Log.d(tag, msg);
         }
+    };
 
-        DispatchHandler(WeakReference<MessageHandler> messageHandlerWeakReference, Callback callback) {
-            super(callback);
-            this.messageHandlerWeakReference = messageHandlerWeakReference;
+    static {
+        setDefaultLogger(ANDROID_LOGGER);
+    }
+
+    // null till the sweeper is enabled.
+    private static volatile ReferenceQueue<MessageHandler> referenceQueue;
+
+    /**
+     * Enqueued once the message handler is collected, so the messages left in the Looper queue
+     * for it are purged at once, instead of holding their payloads till they fire.
+     */
+    private static class HandlerReference extends WeakReference<MessageHandler> {
+        // the messages in the Looper queue refer to it anyway, so it's reachable while it matters.
+        private final DispatchHandler handler;
+
+        HandlerReference(MessageHandler messageHandler, DispatchHandler handler) {
+            super(messageHandler, referenceQueue);
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Purge the messages left in the Looper queue by each handler collected without being killed,
+     * on a daemon thread "MessageHandler-sweeper" shared by all handlers, instead of holding
+     * their payloads till they fire. Off by default, as it costs a thread, the messages of a
+     * collected handler are dropped when they fire anyway.
+     * <p/>
+     * Only takes effect on the handlers created after this, call it once such as in
+     * {@code Application#onCreate}.
+     */
+    public static synchronized void enableLeakSweeper() {
+        if (referenceQueue != null) {
+            return;
+        }
+
+        final ReferenceQueue<MessageHandler> queue = new ReferenceQueue<>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sweep(queue);
+            }
+        }, "MessageHandler-sweeper");
+        thread.setDaemon(true);
+        thread.start();
+        referenceQueue = queue;
+    }
+
+    private static void sweep(final ReferenceQueue<MessageHandler> queue) {
+        for (; ; ) {
+            final Reference<? extends MessageHandler> reference;
+            try {
+                reference = queue.remove();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            logD("sweep the messages of the collected handler");
+            ((HandlerReference) reference).handler.removeCallbacksAndMessages(null);
+        }
+    }
+
+    private static class DispatchHandler extends Handler implements Dispatcher,
+            HostQueue<Message>, MessageType<Message> {
+        private volatile HandlerReference reference;
+
+        DispatchHandler() {
         }
 
-        DispatchHandler(WeakReference<MessageHandler> messageHandlerWeakReference, Looper looper) {
-            this(messageHandlerWeakReference, looper, null);
+        DispatchHandler(Callback callback) {
+            super(callback);
         }
 
-        DispatchHandler(WeakReference<MessageHandler> messageHandlerWeakReference, Looper looper,
-                        Callback callback) {
+        DispatchHandler(Looper looper, Callback callback) {
             super(looper, callback);
-            this.messageHandlerWeakReference = messageHandlerWeakReference;
+        }
+
+        void bind(MessageHandler messageHandler) {
+            this.reference = new HandlerReference(messageHandler, this);
+        }
+
+        /**
+         * @return the message handler, resolved once for each call, null if it's collected.
+         */
+        private MessageHandler resolve() {
+            final HandlerReference reference = this.reference;
+            return reference == null ? null : reference.get();
         }
 
         @Override
         public void dispatchMessage(Message msg) {
-            if (messageHandlerWeakReference == null
-                    || messageHandlerWeakReference.get() == null) {
+            final MessageHandler messageHandler = resolve();
+            if (messageHandler == null
+                    || messageHandler.dispatchFromHost(msg, msg.getWhen())) {
                 return;
             }
 
-            if (messageHandlerWeakReference.get().dispatchMessage(msg)) {
-                return;
-            }
+            super.dispatchMessage(msg);
+        }
 
+        /**
+         * run the callback of the message, or the callback of this handler and then
+         * {@link #handleMessage(Message)}, as Looper does.
+         */
+        void dispatchToCallbacks(Message msg) {
             super.dispatchMessage(msg);
         }
 
         @Override
         public void handleMessage(Message msg) {
             super.handleMessage(msg);
-            if (messageHandlerWeakReference == null
-                    || messageHandlerWeakReference.get() == null) {
-                return;
+            final MessageHandler messageHandler = resolve();
+            if (messageHandler != null) {
+                messageHandler.handleMessage(msg);
             }
-
-            messageHandlerWeakReference.get().handleMessage(msg);
         }
 
         @Override
         public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
-            if (messageHandlerWeakReference == null
-                    || messageHandlerWeakReference.get() == null) {
-                return false;
-            }
+            final MessageHandler messageHandler = resolve();
+            return messageHandler != null
+                    && messageHandler.sendMessageAtTime(msg, uptimeMillis);
+        }
+
+        /**
+         * put the message into the Looper queue directly.
+         */
+        @Override
+        public boolean enqueue(Message msg, long uptimeMillis) {
+            return super.sendMessageAtTime(msg, uptimeMillis);
+        }
+
+        @Override
+        public boolean enqueueAtFront(Message msg) {
+            return sendMessageAtFrontOfQueue(msg);
+        }
+
+        /**
+         * put the task of the scheduler into the Looper queue.
+         */
+        @Override
+        public void schedule(Runnable task, long uptimeMillis) {
+            enqueue(Message.obtain(this, task), uptimeMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            removeCallbacks(task);
+        }
+
+        @Override
+        public Message obtain(int what) {
+            return Message.obtain(this, what);
+        }
+
+        @Override
+        public Message obtain(Runnable callback) {
+            return Message.obtain(this, callback);
+        }
+
+        @Override
+        public Message obtain(Runnable callback, Object token) {
+            final Message msg = Message.obtain(this, callback);
+            msg.obj = token;
+            return msg;
+        }
+
+        @Override
+        public int what(Message msg) {
+            return msg.what;
+        }
+
+        @Override
+        public Object token(Message msg) {
+            return msg.obj;
+        }
+
+        @Override
+        public Runnable callback(Message msg) {
+            return msg.getCallback();
+        }
 
-            return !messageHandlerWeakReference.get().dispatchSendMessage(msg, uptimeMillis) // not consumed
-                    && super.sendMessageAtTime(msg, uptimeMillis);
+        @Override
+        public Message copy(Message msg) {
+            return Message.obtain(msg);
+        }
+
+        @Override
+        public void replace(Message pending, Message incoming) {
+            pending.arg1 = incoming.arg1;
+            pending.arg2 = incoming.arg2;
+            pending.obj = incoming.obj;
+            pending.replyTo = incoming.replyTo;
+            pending.setData(incoming.peekData());
+        }
 
+        @Override
+        public void recycle(Message msg) {
+            msg.recycle();
         }
     }
 
     private final DispatchHandler handler;
+    // delivers on the Looper of the handler, otherwise on an executor.
+    private final boolean onLooper;
 
     public MessageHandler() {
-        handler = new DispatchHandler(new WeakReference<>(this));
-        isDead = false;
-        isPause = false;
+        this(new DispatchHandler());
     }
 
     /**
@@ -113,9 +293,7 @@ public class MessageHandler {
      * @see Handler#Handler(Looper)
      */
     public MessageHandler(final Looper looper) {
-        handler = new DispatchHandler(new WeakReference<>(this), looper);
-        isDead = false;
-        isPause = false;
+        this(new DispatchHandler(looper, null));
     }
 
     /**
@@ -123,9 +301,7 @@ public class MessageHandler {
      * @see Handler#Handler(Handler.Callback)
      */
     public MessageHandler(final Handler.Callback callback) {
-        handler = new DispatchHandler(new WeakReference<>(this), callback);
-        isDead = false;
-        isPause = false;
+        this(new DispatchHandler(callback));
     }
 
     /**
@@ -134,206 +310,146 @@ public class MessageHandler {
      * @see Handler#Handler(Looper, Handler.Callback)
      */
     public MessageHandler(final Looper looper, final Handler.Callback callback) {
-        handler = new DispatchHandler(new WeakReference<>(this), looper, callback);
-        isDead = false;
-        isPause = false;
+        this(new DispatchHandler(looper, callback));
     }
 
     /**
-     * for guarantee pause and killSelf in effect, private this method
-     * if you need, consider implement {@link #handleMessage(Message)}
+     * Deliver messages on the executor instead of a Looper, such as a thread pool or a
+     * {@code ForkJoinPool}, in {@link #SCHEDULE_HANDLER_QUEUE}, which can be changed to
+     * {@link #SCHEDULE_TIMER_WHEEL} but not {@link #SCHEDULE_LOOPER}.
+     * <p/>
+     * The messages whose time is up are delivered by up to {@code parallelism} threads of the
+     * executor at the same time. {@link #pause()} takes effect at once on the messages not being
+     * delivered yet, the same as the Looper. The delayed messages are scheduled by the executor
+     * itself if it's a {@link java.util.concurrent.ScheduledExecutorService}, otherwise by a timer
+     * thread shared by all handlers.
+     * <p/>
+     * The messages still target a {@link Handler} on the main Looper, so
+     * {@link Message#sendToTarget()} comes back to this handler, but nothing is put into the
+     * Looper queue.
      *
-     * @return is consumed
+     * @param executor    The executor to deliver messages on.
+     * @param parallelism The max count of messages delivered at the same time, at least 1.
+     * @param order       {@link #ORDER_NONE} or {@link #ORDER_BY_WHAT}.
+     * @param callback    The callback interface in which to handle messages, or null.
      */
-    private boolean dispatchMessage(Message msg) {
-        logD("dispatchMessage %B %B %d", isDead, isPause, list.size());
-        if (isDead) {
-            return true;
-        }
-
-        // pause
-        if (isPause) {
-            return true;
-        }
-
-        list.remove(msg);
-
-        return false;
+    public MessageHandler(final Executor executor, final int parallelism, final int order,
+                          final Handler.Callback callback) {
+        this(new DispatchHandler(Looper.getMainLooper(), callback), executor, parallelism, order);
     }
 
-    /**
-     * @return is consumed
-     */
-    private boolean dispatchSendMessage(Message msg, long uptimeMillis) {
-        logD("dispatchSendMessage %B %B %d", isDead, isPause, list.size());
-        boolean consumed;
-
-        //noinspection LoopStatementThatDoesntLoop
-        do {
-            if (isDead) {
-                consumed = true;
-                break;
-            }
-
-            MessageHolder messageHolder = new MessageHolder(msg, uptimeMillis);
-
-            if (isPause) {
-                consumed = true;
-                messageHolder.stop();
-            } else {
-                consumed = false;
-            }
-
-            list.add(messageHolder);
-
-            break;
-
-        } while (false);
-
-
-        return consumed;
+    private MessageHandler(final DispatchHandler handler) {
+        super(handler, UPTIME_CLOCK, handler, handler);
+        this.handler = handler;
+        this.onLooper = true;
+        handler.bind(this);
     }
 
-    public void handleMessage(Message msg) {
+    private MessageHandler(final DispatchHandler handler, final Executor executor,
+                           final int parallelism, final int order) {
+        super(handler, UPTIME_CLOCK, new ExecutorDispatcher(executor, UPTIME_CLOCK), parallelism,
+                order, null);
+        this.handler = handler;
+        this.onLooper = false;
+        handler.bind(this);
     }
 
-    // ----------------------------------------------------------
-
     /**
-     * pause and hold all message
+     * on the Looper, but not on the executor, whose threads aren't known.
      */
-    public void pause() {
-        if (isPause) {
-            return;
-        }
-        isPause = true;
-
-        final ArrayList<MessageHolder> cloneList = list.clone();
-        for (MessageHolder messageHolder : cloneList) {
-            messageHolder.stop();
-        }
-        logD("pause %d", cloneList.size());
-        handler.removeCallbacksAndMessages(null);
+    @Override
+    boolean isDeliveryThread() {
+        return onLooper && Looper.myLooper() == handler.getLooper();
     }
 
     /**
-     * resume message
+     * deliver through the {@link Handler}, so its callback is in effect.
      */
-    public void resume() {
-        if (!isPause) {
-            return;
-        }
-        isPause = false;
-        final ArrayList<MessageHolder> cloneList = list.clone();
-        list.clearButHoldMessage();
-        for (MessageHolder messageHolder : cloneList) {
-            messageHolder.resume();
-            handler.sendMessageDelayed(messageHolder.msg, messageHolder.delay);
-        }
-
-        logD("resume %d", cloneList.size());
-    }
-
-    public boolean isPaused() {
-        return this.isPause;
+    @Override
+    void dispatch(final Message msg) {
+        handler.dispatchToCallbacks(msg);
     }
 
-    public boolean isDead() {
-        return this.isDead;
-    }
-
-    /**
-     * cancel all message send by this handler
-     */
-    public void cancelAllMessage() {
-        logD("cancelAllMessage %B %B %d", isDead, isPause, list.size());
-        list.clear();
-        handler.removeCallbacksAndMessages(null);
+    @Override
+    void adopt(final Message msg) {
+        if (msg.getTarget() == null) {
+            // in the Looper queue, it's set by the handler.
+            msg.setTarget(handler);
+        }
     }
 
     /**
-     * this handler do not valid anymore
+     * Kill this handler once the activity is destroyed, so nothing is delivered to the activity
+     * which has gone. Only works on API 14+, ignored on the older ones.
+     *
+     * @param activity the activity this handler works for.
      */
-    public void killSelf() {
-        logD("killSelf %B %B %d", isDead, isPause, list.size());
-        isDead = true;
-        cancelAllMessage();
-    }
+    public void killOnDestroy(final Activity activity) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
 
-    /**
-     * @see Handler#sendEmptyMessage(int)
-     */
-    public boolean sendEmptyMessage(int what) {
-        return handler.sendEmptyMessage(what);
+        KillOnDestroy.bind(activity, this);
     }
 
     /**
-     * @see Handler#sendEmptyMessageDelayed(int, long)
+     * Only loaded on API 14+.
      */
-    public boolean sendEmptyMessageDelayed(int what, long delayMillis) {
-        return handler.sendEmptyMessageDelayed(what, delayMillis);
-    }
+    private static class KillOnDestroy implements Application.ActivityLifecycleCallbacks {
+        private final Application application;
+        private final Activity activity;
+        // the binding doesn't keep the handler alive.
+        private final WeakReference<MessageHandler> messageHandlerWeakReference;
 
-    /**
-     * @see Handler#sendMessage(Message)
-     */
-    public boolean sendMessage(Message msg) {
-        return handler.sendMessage(msg);
-    }
+        static void bind(final Activity activity, final MessageHandler messageHandler) {
+            final Application application = activity.getApplication();
+            application.registerActivityLifecycleCallbacks(
+                    new KillOnDestroy(application, activity, messageHandler));
+        }
 
-    /**
-     * @see Handler#sendMessageDelayed(Message, long)
-     */
-    public boolean sendMessageDelayed(Message msg, long delayMillis) {
-        return handler.sendMessageDelayed(msg, delayMillis);
-    }
+        private KillOnDestroy(final Application application, final Activity activity,
+                              final MessageHandler messageHandler) {
+            this.application = application;
+            this.activity = activity;
+            this.messageHandlerWeakReference = new WeakReference<>(messageHandler);
+        }
 
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            if (activity != this.activity) {
+                return;
+            }
 
-    /**
-     * @see Handler#sendEmptyMessageAtTime(int, long)
-     */
-    public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
-        return handler.sendMessageAtTime(msg, uptimeMillis);
-    }
+            application.unregisterActivityLifecycleCallbacks(this);
+            final MessageHandler messageHandler = messageHandlerWeakReference.get();
+            if (messageHandler != null) {
+                messageHandler.killSelf();
+            }
+        }
 
-    /**
-     * @see Handler#sendMessageAtFrontOfQueue(Message)
-     */
-    public boolean sendMessageAtFrontOfQueue(Message msg) {
-        return !dispatchSendMessage(msg, 0) // not consumed
-                && handler.sendMessageAtFrontOfQueue(msg);
-    }
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
 
-    /**
-     * @see Handler#post(Runnable)
-     */
-    public boolean post(Runnable r) {
-        return handler.post(r);
-    }
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
 
-    /**
-     * @see Handler#postDelayed(Runnable, long)
-     */
-    public boolean postDelayed(Runnable r, long delayMillis) {
-        return handler.postAtTime(r, delayMillis);
-    }
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
 
-    //TODO support runWithScissors & postAtFrontOfQueue
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
 
-    /**
-     * @see Handler#removeMessages(int)
-     */
-    public void removeMessages(int what) {
-        list.remove(what);
-        handler.removeMessages(what);
-    }
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
 
-    /**
-     * @see Handler#removeCallbacks(Runnable)
-     */
-    public void removeCallbacks(Runnable r) {
-        list.remove(r);
-        handler.removeCallbacks(r);
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
     }
 
     /**
@@ -343,6 +459,13 @@ public class MessageHandler {
         return handler.obtainMessage();
     }
 
+    /**
+     * The holder of a message while paused, kept only for the code built against it, the handler
+     * doesn't use it anymore: the messages are held in the core now, see {@link PausableHandler}.
+     *
+     * @deprecated it's left as it was and will be removed in the next major version.
+     */
+    @Deprecated
     public static class MessageHolder {
         private Message msg;
         private final long upTimeMills;
@@ -373,13 +496,12 @@ public class MessageHandler {
                     if (msg != null) {
                         // flag must be clear, free to recycle.
                         msg.recycle();
-                        // have to set nil, because the msg will be used in other places by recycle pool.
+                        // have to set nil, because the msg will be used in other places by recycle
+                        // pool.
                         msg = null;
                     }
-
                 }
             }
-
         }
 
         public boolean compare(final Message msg) {
@@ -393,102 +515,5 @@ public class MessageHandler {
         public boolean compare(final Runnable runnable) {
             return this.msg.getCallback() == runnable;
         }
-
     }
-
-    /**
-     * why this? for being good for Message recycle or not recycle.
-     */
-    private static class MessageHolderList {
-        private final ArrayList<MessageHolder> messageHolderList = new ArrayList<>();
-
-        boolean add(final Message msg, final long delay) {
-            return add(new MessageHolder(msg, delay));
-        }
-
-        boolean add(MessageHolder holder) {
-            logD("List:Change %d + 1 add", size());
-            return messageHolderList.add(holder);
-        }
-
-        private boolean remove(MessageHolder holder) {
-            logD("List:Change %d - 1 remove", size());
-            return messageHolderList.remove(holder);
-        }
-
-        boolean remove(final int what) {
-            @SuppressWarnings("unchecked") ArrayList<MessageHolder> list = (ArrayList<MessageHolder>) messageHolderList.clone();
-            for (MessageHolder messageHolder : list) {
-                if (messageHolder.compare(what)) {
-                    messageHolder.dead();
-                    return remove(messageHolder);
-                }
-            }
-
-            return false;
-        }
-
-        boolean remove(final Runnable callback) {
-            @SuppressWarnings("unchecked") ArrayList<MessageHolder> list = (ArrayList<MessageHolder>) messageHolderList.clone();
-            for (MessageHolder messageHolder : list) {
-                if (messageHolder.compare(callback)) {
-                    messageHolder.dead();
-                    return remove(messageHolder);
-                }
-            }
-
-            return false;
-        }
-
-        boolean remove(final Message msg) {
-            @SuppressWarnings("unchecked") ArrayList<MessageHolder> list = (ArrayList<MessageHolder>) messageHolderList.clone();
-            for (MessageHolder messageHolder : list) {
-                if (messageHolder.compare(msg)) {
-                    messageHolder.dead();
-                    return remove(messageHolder);
-                }
-            }
-
-            return false;
-        }
-
-        public void clear() {
-            @SuppressWarnings("unchecked") ArrayList<MessageHolder> list = (ArrayList<MessageHolder>) messageHolderList.clone();
-            clearButHoldMessage();
-            for (MessageHolder messageHolder : list) {
-                messageHolder.dead();
-            }
-        }
-
-        /**
-         * natural: in case of will be recycle by system framework, such as: will invoke sendMessage
-         * and Looper#looper will invoke recycleUnchecked to recycle Message.
-         */
-        public void clearButHoldMessage() {
-            logD("List:Change %d = 0 clear", size());
-            messageHolderList.clear();
-        }
-
-        @SuppressWarnings({"CloneDoesntCallSuperClone", "CloneDoesntDeclareCloneNotSupportedException"})
-        @Override
-        protected ArrayList<MessageHolder> clone() {
-            //noinspection unchecked
-            return (ArrayList<MessageHolder>) messageHolderList.clone();
-        }
-
-        public int size(){
-            return messageHolderList.size();
-        }
-    }
-
-    private final static String TAG = "MessageHandler";
-    public static boolean NEED_LOG = false;
-
-    private static void logD(final String msg, final Object... args) {
-        if (!NEED_LOG) {
-            return;
-        }
-        Log.d(TAG, String.format(msg, args));
-    }
-
 }